@@ -0,0 +1,295 @@
+package chessboard;
+
+/**
+ * Precomputed attack bitboards for every piece on every square. Knights, kings and pawns are a single lookup. Bishops
+ * and rooks use magic bitboards: the pieces on a slider's rays are masked out of the occupancy, multiplied by a magic
+ * number and shifted down to give an index into a table holding the attacked squares for that set of blockers.
+ *
+ * Squares are numbered as in BoardPosition.getSquareIndex.
+ */
+public class AttackTables {
+
+    private static final long[] knightAttacks = new long[64];
+    private static final long[] kingAttacks = new long[64];
+    // Indexed by colour ordinal then square
+    private static final long[][] pawnAttacks = new long[2][64];
+
+    private static final long[] rookMasks = new long[64];
+    private static final long[] rookMagics = {
+            0x008000908064C000L, 0x0040200040001000L, 0x0180100080A0010AL,
+            0x8880041000800800L, 0x1200100201200804L, 0x0200020004011008L,
+            0x2180010000800600L, 0x0200005088210204L, 0x0000800080204001L,
+            0x1000804000802001L, 0x8240801000200080L, 0x8611001004200900L,
+            0x008180800C001800L, 0x0100800200800400L, 0x0A02000102000408L,
+            0x8020802300104280L, 0x0080004000402000L, 0xE010104000402000L,
+            0x0800808010002000L, 0xA280210008100100L, 0x0001818014000800L,
+            0xA002010100080400L, 0x0008040088020130L, 0x0001020004048845L,
+            0x0081826280004004L, 0x2020810900284000L, 0x0200100080802000L,
+            0x0200080080100080L, 0x8083080100100500L, 0x4406000901000400L,
+            0x0005020080800100L, 0x0090204200008114L, 0x0010400094800420L,
+            0x0900804000802002L, 0x0201001841002000L, 0x4100080080801000L,
+            0x4540040080800800L, 0x0000800400800200L, 0x9281800100808200L,
+            0x8004048102000854L, 0x4420802040008006L, 0x0880500020004002L,
+            0x0801200241050010L, 0x8400080010008080L, 0x0008000500090010L,
+            0x0082009084020008L, 0x4012000108020004L, 0x9000104D08860004L,
+            0x2004204114800100L, 0x0148802112400300L, 0x0202842000100880L,
+            0x001B080080900080L, 0x001A002008100600L, 0x0004008004020080L,
+            0x5181000600040300L, 0x0000044401128A00L, 0x8044110480002441L,
+            0x1023012082044112L, 0x00804080200A0012L, 0x000420310A004A42L,
+            0x0023001004020801L, 0x0882001008040102L, 0x000230088118020CL,
+            0x0000019025040042L
+    };
+    private static final int[] rookShifts = new int[64];
+    private static final long[][] rookTables = new long[64][];
+
+    private static final long[] bishopMasks = new long[64];
+    private static final long[] bishopMagics = {
+            0x1010220204082A00L, 0x80E0020202002804L, 0x2008480104200020L,
+            0x000220920280002DL, 0x32040421000B0284L, 0x1002080404000400L,
+            0x0004160892080040L, 0x2203024206204201L, 0x0002404264010200L,
+            0x1120908408428124L, 0xB100424403002280L, 0x240008060440C288L,
+            0x2040040420490400L, 0x0100620210040022L, 0x0400084104202028L,
+            0x0010050080908820L, 0x0C90A04490824802L, 0x000200A008210130L,
+            0x0C08001000204010L, 0x0008000186014480L, 0x0601044820080021L,
+            0x0002000101013100L, 0x1400A08108080204L, 0x0250401104485410L,
+            0x4820240810142843L, 0x0009142A20182200L, 0x0848140048440020L,
+            0x2020120000400440L, 0x0108840200802003L, 0x0009070082009492L,
+            0x020C0C0038424245L, 0xCA44005808210410L, 0x8011212000500404L,
+            0x2028840510101008L, 0x0004042A00041400L, 0x0624020080980080L,
+            0x1820410040840040L, 0x2201004202050100L, 0x402A088A24040224L,
+            0x0242061040002400L, 0x90020202400821A0L, 0x00C9009004E01002L,
+            0x58C2060202023100L, 0x0000012214040800L, 0x0210846810100200L,
+            0x0004208081010200L, 0x01A4108404442100L, 0x8054082C80280106L,
+            0x0004144904104208L, 0x00324C0A11104000L, 0x1000020231040100L,
+            0x2080001042020004L, 0x0544021020288104L, 0x1103501408083020L,
+            0x4010451004960002L, 0x003010091C44902CL, 0x0102402884202000L,
+            0x0480804C00841086L, 0x04602C8602210400L, 0x0000004000420200L,
+            0x0040000020442C18L, 0x4483804089094100L, 0x80000B0248020400L,
+            0x0045010808008680L
+    };
+    private static final int[] bishopShifts = new int[64];
+    private static final long[][] bishopTables = new long[64][];
+
+    // Indexed by two squares. Both are empty unless the squares share a row, column or diagonal.
+    private static final long[][] squaresBetween = new long[64][64];
+    private static final long[][] lines = new long[64][64];
+
+    private static final int[][] rookDirections = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] bishopDirections = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    // State of the random number generator used to search for magics. The magics above were found with this seed, so
+    // the search only runs if one of them stops working (e.g. the mask for a square changes).
+    private static long magicSeed = 0x2545F4914F6CDD1DL;
+
+    public static long knightAttacks(int square) {
+        return knightAttacks[square];
+    }
+
+    public static long kingAttacks(int square) {
+        return kingAttacks[square];
+    }
+
+    // The squares a pawn of this colour on this square attacks (not the squares it can move forward to)
+    public static long pawnAttacks(PlayerColour colour, int square) {
+        return pawnAttacks[colour.ordinal()][square];
+    }
+
+    public static long rookAttacks(int square, long occupied) {
+        int index = (int) (((occupied & rookMasks[square]) * rookMagics[square]) >>> rookShifts[square]);
+        return rookTables[square][index];
+    }
+
+    public static long bishopAttacks(int square, long occupied) {
+        int index = (int) (((occupied & bishopMasks[square]) * bishopMagics[square]) >>> bishopShifts[square]);
+        return bishopTables[square][index];
+    }
+
+    public static long queenAttacks(int square, long occupied) {
+        return rookAttacks(square, occupied) | bishopAttacks(square, occupied);
+    }
+
+    // The squares strictly between two squares on the same row, column or diagonal. Empty otherwise.
+    public static long squaresBetween(int square, int otherSquare) {
+        return squaresBetween[square][otherSquare];
+    }
+
+    // The whole row, column or diagonal through both squares, from one edge of the board to the other. Empty if they
+    // aren't on one.
+    public static long line(int square, int otherSquare) {
+        return lines[square][otherSquare];
+    }
+
+    // The squares attacked by this piece from this square. Includes squares occupied by either colour.
+    public static long attacks(Piece piece, PlayerColour colour, int square, long occupied) {
+        switch (piece) {
+            case PAWN:
+                return pawnAttacks(colour, square);
+            case KNIGHT:
+                return knightAttacks(square);
+            case BISHOP:
+                return bishopAttacks(square, occupied);
+            case ROOK:
+                return rookAttacks(square, occupied);
+            case QUEEN:
+                return queenAttacks(square, occupied);
+            default:
+                // King
+                return kingAttacks(square);
+        }
+    }
+
+    // Walks each direction from the square one step at a time, stopping after the first occupied square. Only used to
+    // build the tables.
+    private static long slidingAttacks(int square, long occupied, int[][] directions) {
+        long attacks = 0;
+        int column = square % 8;
+        int row = square / 8;
+        for (int[] direction : directions) {
+            int c = column + direction[0];
+            int r = row + direction[1];
+            while (0 <= c && c < 8 && 0 <= r && r < 8) {
+                long bit = 1L << (r * 8 + c);
+                attacks |= bit;
+                if ((occupied & bit) != 0) {
+                    break;
+                }
+                c += direction[0];
+                r += direction[1];
+            }
+        }
+        return attacks;
+    }
+
+    // The squares whose occupancy matters to a slider on this square. The last square of each ray never does, since
+    // it's attacked whether or not something is on it.
+    private static long slidingMask(int square, int[][] directions) {
+        long mask = 0;
+        int column = square % 8;
+        int row = square / 8;
+        for (int[] direction : directions) {
+            int c = column + direction[0];
+            int r = row + direction[1];
+            while (0 <= c + direction[0] && c + direction[0] < 8 && 0 <= r + direction[1] && r + direction[1] < 8) {
+                mask |= 1L << (r * 8 + c);
+                c += direction[0];
+                r += direction[1];
+            }
+        }
+        return mask;
+    }
+
+    // Fills in squaresBetween and lines for the square by walking out from it in every direction
+    private static void initialiseLines(int square) {
+        int column = square % 8;
+        int row = square / 8;
+        for (int[][] directions : new int[][][] {rookDirections, bishopDirections}) {
+            for (int[] direction : directions) {
+                // The line through the square is this direction plus the opposite direction
+                long line = (1L << square) | slidingAttacks(square, 0, new int[][] {direction})
+                        | slidingAttacks(square, 0, new int[][] {{-direction[0], -direction[1]}});
+                long between = 0;
+                int c = column + direction[0];
+                int r = row + direction[1];
+                while (0 <= c && c < 8 && 0 <= r && r < 8) {
+                    int otherSquare = r * 8 + c;
+                    squaresBetween[square][otherSquare] = between;
+                    lines[square][otherSquare] = line;
+                    between |= 1L << otherSquare;
+                    c += direction[0];
+                    r += direction[1];
+                }
+            }
+        }
+    }
+
+    // Attacks for pieces that move a fixed distance, e.g. knights
+    private static long steppingAttacks(int square, int[][] steps) {
+        long attacks = 0;
+        int column = square % 8;
+        int row = square / 8;
+        for (int[] step : steps) {
+            int c = column + step[0];
+            int r = row + step[1];
+            if (0 <= c && c < 8 && 0 <= r && r < 8) {
+                attacks |= 1L << (r * 8 + c);
+            }
+        }
+        return attacks;
+    }
+
+    private static long nextRandom() {
+        magicSeed ^= magicSeed >>> 12;
+        magicSeed ^= magicSeed << 25;
+        magicSeed ^= magicSeed >>> 27;
+        return magicSeed * 0x2545F4914F6CDD1DL;
+    }
+
+    // Fills in the table for this square using its stored magic, or searches for a new magic if that doesn't work
+    private static void initialiseMagic(int square, int[][] directions, long[] masks, long[] magics, int[] shifts,
+                                        long[][] tables) {
+        long mask = slidingMask(square, directions);
+        int bits = Long.bitCount(mask);
+        int size = 1 << bits;
+
+        // Every subset of the mask, and the attacks for each
+        long[] blockers = new long[size];
+        long[] attacks = new long[size];
+        long subset = 0;
+        for (int i = 0; i < size; i++) {
+            blockers[i] = subset;
+            attacks[i] = slidingAttacks(square, subset, directions);
+            subset = (subset - mask) & mask;
+        }
+
+        long[] table = new long[size];
+        // The attempt that last wrote each table entry, so the table doesn't need clearing between attempts
+        int[] usedBy = new int[size];
+        long magic = magics[square];
+        int attempt = 1;
+        // Random numbers with few bits set make good magics, so we just keep trying those until one maps every blocker
+        // set without a harmful collision
+        while (!tryMagic(magic, bits, blockers, attacks, table, usedBy, attempt)) {
+            do {
+                magic = nextRandom() & nextRandom() & nextRandom();
+            } while (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6);
+            attempt++;
+        }
+
+        masks[square] = mask;
+        magics[square] = magic;
+        shifts[square] = 64 - bits;
+        tables[square] = table;
+    }
+
+    // Fills the table using this magic. Returns false if two blocker sets with different attacks share an index.
+    private static boolean tryMagic(long magic, int bits, long[] blockers, long[] attacks, long[] table, int[] usedBy,
+                                    int attempt) {
+        for (int i = 0; i < blockers.length; i++) {
+            int index = (int) ((blockers[i] * magic) >>> (64 - bits));
+            if (usedBy[index] != attempt) {
+                usedBy[index] = attempt;
+                table[index] = attacks[i];
+            } else if (table[index] != attacks[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static {
+        int[][] knightSteps = {{1, 2}, {2, 1}, {-1, 2}, {-2, 1}, {1, -2}, {2, -1}, {-1, -2}, {-2, -1}};
+        int[][] kingSteps = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+        int[][] whitePawnSteps = {{1, 1}, {-1, 1}};
+        int[][] blackPawnSteps = {{1, -1}, {-1, -1}};
+
+        for (int square = 0; square < 64; square++) {
+            knightAttacks[square] = steppingAttacks(square, knightSteps);
+            kingAttacks[square] = steppingAttacks(square, kingSteps);
+            pawnAttacks[PlayerColour.WHITE.ordinal()][square] = steppingAttacks(square, whitePawnSteps);
+            pawnAttacks[PlayerColour.BLACK.ordinal()][square] = steppingAttacks(square, blackPawnSteps);
+            initialiseMagic(square, rookDirections, rookMasks, rookMagics, rookShifts, rookTables);
+            initialiseMagic(square, bishopDirections, bishopMasks, bishopMagics, bishopShifts, bishopTables);
+            initialiseLines(square);
+        }
+    }
+}
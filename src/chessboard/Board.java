@@ -1,128 +1,163 @@
 package chessboard;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
- * Represents the board at any time, containing all the pieces of both colours
+ * Represents the board at any time, containing all the pieces of both colours. The board is stored as bitboards: one
+ * 64 bit long per coloured piece, where bit n is set if that piece is on square n (see BoardPosition.getSquareIndex)
  */
 public class Board {
-    private HashMap<BoardPosition, ColouredPiece> boardMap;
+    // Indexed by getBitboardIndex(piece, colour)
+    private long[] pieceBitboards;
+
+    // All the pieces of each colour, indexed by colour ordinal
+    private long[] colourBitboards;
+
+    // All the pieces on the board
+    private long occupied;
+
+    // The Zobrist key of the pieces on the board, kept up to date as pieces are placed and removed
+    private long key;
+
+    // The static evaluation of the pieces on the board (see Evaluation), kept up to date in the same way
+    private int evaluation;
 
     public Board(HashMap<BoardPosition, ColouredPiece> boardMap) {
-        this.boardMap = (HashMap<BoardPosition, ColouredPiece>) boardMap.clone();
+        pieceBitboards = new long[12];
+        colourBitboards = new long[2];
+        for (Map.Entry<BoardPosition, ColouredPiece> entry : boardMap.entrySet()) {
+            placePiece(entry.getValue(), entry.getKey().getSquareIndex());
+        }
     }
 
     public Board() {
-        this.boardMap = new HashMap<>();
+        pieceBitboards = new long[12];
+        colourBitboards = new long[2];
 
-        try {
-            // Pawns
-            for (int column = 0; column < 8; column++) {
-                boardMap.put(new BoardPosition(column, 1), new ColouredPiece(Piece.PAWN, PlayerColour.WHITE));
-                boardMap.put(new BoardPosition(column, 6), new ColouredPiece(Piece.PAWN, PlayerColour.BLACK));
-            }
+        // Pawns
+        for (int column = 0; column < 8; column++) {
+            placePiece(ColouredPiece.get(Piece.PAWN, PlayerColour.WHITE), square(column, 1));
+            placePiece(ColouredPiece.get(Piece.PAWN, PlayerColour.BLACK), square(column, 6));
+        }
 
-            // Kings
-            boardMap.put(new BoardPosition(4, 0), new ColouredPiece(Piece.KING, PlayerColour.WHITE));
-            boardMap.put(new BoardPosition(4, 7), new ColouredPiece(Piece.KING, PlayerColour.BLACK));
-
-            // Queens
-            boardMap.put(new BoardPosition(3, 0), new ColouredPiece(Piece.QUEEN, PlayerColour.WHITE));
-            boardMap.put(new BoardPosition(3, 7), new ColouredPiece(Piece.QUEEN, PlayerColour.BLACK));
-
-            // Bishops
-            boardMap.put(new BoardPosition(2, 0), new ColouredPiece(Piece.BISHOP, PlayerColour.WHITE));
-            boardMap.put(new BoardPosition(2, 7), new ColouredPiece(Piece.BISHOP, PlayerColour.BLACK));
-            boardMap.put(new BoardPosition(5, 0), new ColouredPiece(Piece.BISHOP, PlayerColour.WHITE));
-            boardMap.put(new BoardPosition(5, 7), new ColouredPiece(Piece.BISHOP, PlayerColour.BLACK));
-
-            // Knights
-            boardMap.put(new BoardPosition(1, 0), new ColouredPiece(Piece.KNIGHT, PlayerColour.WHITE));
-            boardMap.put(new BoardPosition(1, 7), new ColouredPiece(Piece.KNIGHT, PlayerColour.BLACK));
-            boardMap.put(new BoardPosition(6, 0), new ColouredPiece(Piece.KNIGHT, PlayerColour.WHITE));
-            boardMap.put(new BoardPosition(6, 7), new ColouredPiece(Piece.KNIGHT, PlayerColour.BLACK));
-
-            // Rooks
-            boardMap.put(new BoardPosition(0, 0), new ColouredPiece(Piece.ROOK, PlayerColour.WHITE));
-            boardMap.put(new BoardPosition(0, 7), new ColouredPiece(Piece.ROOK, PlayerColour.BLACK));
-            boardMap.put(new BoardPosition(7, 0), new ColouredPiece(Piece.ROOK, PlayerColour.WHITE));
-            boardMap.put(new BoardPosition(7, 7), new ColouredPiece(Piece.ROOK, PlayerColour.BLACK));
-        } catch (InvalidBoardPositionException e) {
-            // This should never happen
-            System.out.println("Something's wrong!");
-            return;
+        // Back ranks, from the a file to the h file
+        Piece[] backRank = {Piece.ROOK, Piece.KNIGHT, Piece.BISHOP, Piece.QUEEN, Piece.KING, Piece.BISHOP,
+                Piece.KNIGHT, Piece.ROOK};
+        for (int column = 0; column < 8; column++) {
+            placePiece(ColouredPiece.get(backRank[column], PlayerColour.WHITE), square(column, 0));
+            placePiece(ColouredPiece.get(backRank[column], PlayerColour.BLACK), square(column, 7));
         }
     }
 
+    // Used by clone
+    private Board(long[] pieceBitboards, long[] colourBitboards, long occupied, long key, int evaluation) {
+        this.pieceBitboards = pieceBitboards.clone();
+        this.colourBitboards = colourBitboards.clone();
+        this.occupied = occupied;
+        this.key = key;
+        this.evaluation = evaluation;
+    }
+
     // returns null if there is no piece at that position, otherwise the piece
     public ColouredPiece getPieceAtPosition(BoardPosition position) {
-        return boardMap.get(position);
+        return getPieceAtSquare(position.getSquareIndex());
     }
 
-    // returns null if that piece is not on the board, otherwise the position
-    public BoardPosition getPiecesPosition(ColouredPiece piece) {
-        for (Map.Entry<BoardPosition, ColouredPiece> entry : boardMap.entrySet()) {
-            if (entry.getValue().equals(piece)) {
-                return entry.getKey();
+    // returns null if there is no piece on that square, otherwise the piece
+    public ColouredPiece getPieceAtSquare(int square) {
+        long bit = 1L << square;
+        if ((occupied & bit) == 0) {
+            return null;
+        }
+        int colour = (colourBitboards[0] & bit) != 0 ? 0 : 1;
+        for (int i = colour * 6; i < colour * 6 + 6; i++) {
+            if ((pieceBitboards[i] & bit) != 0) {
+                return ColouredPiece.get(i);
             }
         }
+        // This should never happen
+        System.out.println("Something's wrong!");
         return null;
     }
 
-    public void moveAndTakePiece(ColouredPiece piece, BoardPosition newPosition) {
-        boardMap.remove(newPosition);
-        boardMap.remove(getPiecesPosition(piece));
-        boardMap.put(newPosition, piece);
+    // returns null if that piece is not on the board, otherwise the position. If there is more than one of that piece
+    // (e.g. pawns) the position of one of them is returned, so this is really only useful for kings.
+    public BoardPosition getPiecesPosition(ColouredPiece piece) {
+        long bitboard = getBitboard(piece);
+        if (bitboard == 0) {
+            return null;
+        }
+        return BoardPosition.fromSquareIndex(Long.numberOfTrailingZeros(bitboard));
+    }
+
+    // Moves whatever piece is at oldPosition to newPosition, taking anything that was at newPosition
+    public void moveAndTakePiece(BoardPosition oldPosition, BoardPosition newPosition) {
+        movePiece(oldPosition.getSquareIndex(), newPosition.getSquareIndex());
     }
 
     public void replacePieceAtPosition(ColouredPiece piece, BoardPosition position) {
-        boardMap.remove(position);
-        boardMap.put(position, piece);
+        removePiece(position.getSquareIndex());
+        placePiece(piece, position.getSquareIndex());
+    }
+
+    public long getBitboard(ColouredPiece piece) {
+        return pieceBitboards[piece.getBitboardIndex()];
+    }
+
+    public long getBitboard(Piece piece, PlayerColour colour) {
+        return pieceBitboards[getBitboardIndex(piece, colour)];
+    }
+
+    public long getColourBitboard(PlayerColour colour) {
+        return colourBitboards[colour.ordinal()];
     }
 
-    public Set<ColouredPiece> getPieces() {
-        return new HashSet<>(boardMap.values());
+    public long getOccupied() {
+        return occupied;
     }
 
-    // Returns all pieces of that colour
-    public Set<ColouredPiece> getPieces(PlayerColour colour) {
-        Set<ColouredPiece> pieces = getPieces().stream().filter(p -> p.getColour().equals(colour)).collect(Collectors
-                .toSet());
-        return pieces;
+    // The Zobrist key of just the pieces on the board. State adds the turn, castling and en passant to this.
+    public long getKey() {
+        return key;
+    }
+
+    // Material and piece placement in centipawns, positive if white is ahead (see Evaluation)
+    public int getEvaluation() {
+        return evaluation;
+    }
+
+    // Number of that piece on the board
+    public int getPieceCount(ColouredPiece piece) {
+        return Long.bitCount(getBitboard(piece));
+    }
+
+    // Number of pieces of both colours on the board
+    public int getPieceCount() {
+        return Long.bitCount(occupied);
     }
 
     public Board clone() {
-        return new Board(boardMap);
+        return new Board(pieceBitboards, colourBitboards, occupied, key, evaluation);
     }
 
-    // Returns true if this board contains exactly the set of pieces pieces. Note by exactly I mean each piece is the
-    // same according to comparePieces.
-    public boolean compareBoardWithPieceList(Set<ColouredPiece> pieces) {
-        Set<ColouredPiece> boardPieces = getPieces();
-        Set<ColouredPiece> otherPieces = new HashSet<>(pieces);
-        if (boardPieces.size() != pieces.size()) {
+    // Returns true if this board contains exactly this collection of pieces, e.g. a king and a bishop of each colour.
+    public boolean hasExactlyPieces(ColouredPiece... pieces) {
+        if (pieces.length != getPieceCount()) {
             return false;
         }
-        for (ColouredPiece piece : boardPieces) {
-            boolean pieceFound = false;
-            // Check if there is a ColouredPiece with the same piece and colour
-            // in otherPieces, then remove it if there is
-            for (ColouredPiece otherPiece : otherPieces) {
-                if (comparePieces(piece, otherPiece)) {
-                    otherPieces.remove(otherPiece);
-                    pieceFound = true;
-                    break;
-                }
-            }
-            if (!pieceFound) {
+        int[] counts = new int[12];
+        for (ColouredPiece piece : pieces) {
+            counts[piece.getBitboardIndex()]++;
+        }
+        for (int i = 0; i < 12; i++) {
+            if (counts[i] != Long.bitCount(pieceBitboards[i])) {
                 return false;
             }
         }
         return true;
     }
 
-    // Returns true if two pieces are the same colour and type (not the same instance). If either is null, returns false
+    // Returns true if two pieces are the same colour and type. If either is null, returns false
     public static boolean comparePieces(ColouredPiece piece, ColouredPiece otherPiece) {
         if (piece == null || otherPiece == null) {
             return false;
@@ -130,17 +165,57 @@ public class Board {
         return piece.getColour().equals(otherPiece.getColour()) && piece.getPiece().equals(otherPiece.getPiece());
     }
 
-    // More or less an equals method. Used to determine threefold repetition. Doesn't compare pieces by .equals, uses
-    // comparePieces. Unsure if this should be the actual equals method or if that will be problematic. This method is
-    // really shit btw, not sure of any much better ways to do it
+    // More or less an equals method. Two boards are the same if every piece bitboard is the same.
     public boolean sameBoard(Board otherBoard) {
-        // Manually check through every square to make sure they're the same
-        for (BoardPosition position: BoardPosition.allSquares) {
-            if (!((getPieceAtPosition(position) == null && otherBoard.getPieceAtPosition(position) == null)
-                    || (comparePieces(getPieceAtPosition(position), otherBoard.getPieceAtPosition(position))))) {
-                return false;
+        return Arrays.equals(pieceBitboards, otherBoard.pieceBitboards);
+    }
+
+    // The index of the bitboard for this piece and colour. White pieces are 0-5, black pieces 6-11
+    public static int getBitboardIndex(Piece piece, PlayerColour colour) {
+        return colour.ordinal() * 6 + piece.ordinal();
+    }
+
+    // The square index of a column and row, see BoardPosition.getSquareIndex
+    public static int square(int column, int row) {
+        return row * 8 + column;
+    }
+
+    // The square based methods below are what State uses to make and unmake moves
+
+    // Moves whatever piece is on oldSquare to newSquare, taking anything that was on newSquare
+    void movePiece(int oldSquare, int newSquare) {
+        ColouredPiece piece = getPieceAtSquare(oldSquare);
+        removePiece(newSquare);
+        removePiece(oldSquare);
+        placePiece(piece, newSquare);
+    }
+
+    // Puts the piece on an empty square
+    void placePiece(ColouredPiece piece, int square) {
+        long bit = 1L << square;
+        pieceBitboards[piece.getBitboardIndex()] |= bit;
+        colourBitboards[piece.getColour().ordinal()] |= bit;
+        occupied |= bit;
+        key ^= Zobrist.pieceKey(piece.getBitboardIndex(), square);
+        evaluation += Evaluation.pieceValue(piece.getBitboardIndex(), square);
+    }
+
+    // Removes whatever piece is on the square, if there is one
+    void removePiece(int square) {
+        long bit = 1L << square;
+        if ((occupied & bit) == 0) {
+            return;
+        }
+        int colour = (colourBitboards[0] & bit) != 0 ? 0 : 1;
+        for (int i = colour * 6; i < colour * 6 + 6; i++) {
+            if ((pieceBitboards[i] & bit) != 0) {
+                pieceBitboards[i] &= ~bit;
+                key ^= Zobrist.pieceKey(i, square);
+                evaluation -= Evaluation.pieceValue(i, square);
+                break;
             }
         }
-        return true;
+        colourBitboards[colour] &= ~bit;
+        occupied &= ~bit;
     }
 }
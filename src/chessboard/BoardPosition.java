@@ -53,10 +53,22 @@ public class BoardPosition extends RelativeBoardPosition {
     public static ArrayList<BoardPosition> darkSquares = new ArrayList<>();
     public static ArrayList<BoardPosition> allSquares = new ArrayList<>();
 
+    // Every square, indexed by getSquareIndex, so the board doesn't have to create new positions
+    private static BoardPosition[] squaresByIndex = new BoardPosition[64];
+
     public int getCoordinatePosition() {
         return 10 * column + row;
     }
 
+    // The index of the bit for this square in a bitboard. a1 is 0, h1 is 7, a8 is 56 and h8 is 63.
+    public int getSquareIndex() {
+        return row * 8 + column;
+    }
+
+    public static BoardPosition fromSquareIndex(int squareIndex) {
+        return squaresByIndex[squareIndex];
+    }
+
     public int getRow() {
         return row;
     }
@@ -85,6 +97,7 @@ public class BoardPosition extends RelativeBoardPosition {
                 for (int row = 0; row < 8; row++) {
                     BoardPosition square = new BoardPosition(column, row);
                     allSquares.add(square);
+                    squaresByIndex[square.getSquareIndex()] = square;
                     if (column % 2 == 0) {
                         // Even rows are dark squares
                         if (row % 2 == 0) {
@@ -13,12 +13,24 @@ public class ColouredPiece {
 
     private ArrayList<ArrayList<RelativeBoardPosition>> attackRoutes = new ArrayList<>();
 
+    // One shared instance of each coloured piece, indexed by Board.getBitboardIndex. The board only stores bitboards,
+    // so these are the instances it hands out.
+    private static final ColouredPiece[] sharedPieces = new ColouredPiece[12];
+
     public ColouredPiece(Piece piece, PlayerColour colour) {
         this.piece = piece;
         this.colour = colour;
         generateAttackRoutes();
     }
 
+    public static ColouredPiece get(Piece piece, PlayerColour colour) {
+        return sharedPieces[Board.getBitboardIndex(piece, colour)];
+    }
+
+    public static ColouredPiece get(int bitboardIndex) {
+        return sharedPieces[bitboardIndex];
+    }
+
     public Piece getPiece() {
         return piece;
     }
@@ -27,6 +39,25 @@ public class ColouredPiece {
         return colour;
     }
 
+    public int getBitboardIndex() {
+        return Board.getBitboardIndex(piece, colour);
+    }
+
+    // Two pieces are equal if they are the same type and colour. Pieces don't know where they are on the board.
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof ColouredPiece) {
+            ColouredPiece otherPiece = (ColouredPiece) obj;
+            return piece == otherPiece.piece && colour == otherPiece.colour;
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return getBitboardIndex();
+    }
+
     public ArrayList<ArrayList<RelativeBoardPosition>> getAttackRoutes() {
         // I'm really not sure what's going on here but hopefully the attack routes are unmodifiable. This entire class
         // is designed to be immutable.
@@ -162,4 +193,12 @@ public class ColouredPiece {
             return;
         }
     }
+
+    static {
+        for (PlayerColour colour : PlayerColour.values()) {
+            for (Piece piece : Piece.values()) {
+                sharedPieces[Board.getBitboardIndex(piece, colour)] = new ColouredPiece(piece, colour);
+            }
+        }
+    }
 }
@@ -1,9 +1,19 @@
 package chessboard;
 
 /**
- * A single move
+ * A single move. Move generation and search work with moves packed into ints (see pack) and only create Move objects
+ * when a move needs to be printed or read in.
  */
 public class Move {
+    // Types of packed move
+    public static final int NORMAL = 0;
+    public static final int EN_PASSANT = 1;
+    public static final int CASTLING = 2;
+    public static final int PROMOTING = 3;
+
+    // Piece.values() makes a new array each call
+    private static final Piece[] pieces = Piece.values();
+
     private ColouredPiece piece;
     private BoardPosition newPosition;
     private boolean taking;
@@ -27,6 +37,9 @@ public class Move {
     // Null if not taking, newPosition if not taking enpessant, different otherwise
     private BoardPosition takePosition;
 
+    // This move packed into an int, see pack
+    private int packed;
+
     // Where the king castle to, depending on the colour
     private static BoardPosition kingsideCastlePosition;
     private static BoardPosition queensideCastlePosition;
@@ -61,6 +74,7 @@ public class Move {
         if (taking) {
             this.takePosition = newPosition;
         }
+        this.packed = pack(oldPosition.getSquareIndex(), newPosition.getSquareIndex(), piece, NORMAL, null, taking);
     }
 
     // En passant
@@ -83,6 +97,12 @@ public class Move {
         this.oldPositionCoordinate = oldPositionCoordinate;
         this.taking = true;
         this.takePosition = takePosition;
+        try {
+            this.oldPosition = new BoardPosition(oldPositionCoordinate);
+        } catch (InvalidBoardPositionException e) {
+            throw new InvalidMoveException("Invalid move!");
+        }
+        this.packed = pack(oldPosition.getSquareIndex(), newPosition.getSquareIndex(), piece, EN_PASSANT, null, true);
     }
 
     // Castling
@@ -90,19 +110,14 @@ public class Move {
                 BoardPosition newRookPosition) throws InvalidMoveException {
         BoardPosition kingsideCastleRookPosition;
         BoardPosition queensideCastleRookPosition;
+        BoardPosition kingPosition;
         try {
-            if (king.getColour() == PlayerColour.WHITE) {
-                kingsideCastlePosition = new BoardPosition(6, 0);
-                queensideCastlePosition = new BoardPosition(2, 0);
-                kingsideCastleRookPosition = new BoardPosition(5, 0);
-                queensideCastleRookPosition = new BoardPosition(3, 0);
-            } else {
-                // Black
-                kingsideCastlePosition = new BoardPosition(6, 7);
-                queensideCastlePosition = new BoardPosition(2, 7);
-                kingsideCastleRookPosition = new BoardPosition(5, 7);
-                queensideCastleRookPosition = new BoardPosition(3, 7);
-            }
+            int row = king.getColour() == PlayerColour.WHITE ? 0 : 7;
+            kingsideCastlePosition = new BoardPosition(6, row);
+            queensideCastlePosition = new BoardPosition(2, row);
+            kingsideCastleRookPosition = new BoardPosition(5, row);
+            queensideCastleRookPosition = new BoardPosition(3, row);
+            kingPosition = new BoardPosition(4, row);
         } catch (InvalidBoardPositionException e) {
             // This should never happen
             System.out.println("Something's wrong!");
@@ -118,6 +133,7 @@ public class Move {
             } else {
                 this.specialMove = specialMove;
                 this.piece = king;
+                this.oldPosition = kingPosition;
                 this.newPosition = newKingPosition;
                 this.castlingPiece = rook;
                 this.castlingPosition = newRookPosition;
@@ -129,6 +145,7 @@ public class Move {
             } else {
                 this.specialMove = specialMove;
                 this.piece = king;
+                this.oldPosition = kingPosition;
                 this.newPosition = newKingPosition;
                 this.castlingPiece = rook;
                 this.castlingPosition = newRookPosition;
@@ -137,6 +154,7 @@ public class Move {
         } else {
             throw new InvalidMoveException("Invalid move!");
         }
+        this.packed = pack(oldPosition.getSquareIndex(), newPosition.getSquareIndex(), piece, CASTLING, null, false);
     }
 
     // Promotion
@@ -154,6 +172,104 @@ public class Move {
             this.takePosition = newPosition;
         }
         this.promotionTo = promotionTo;
+        try {
+            this.oldPosition = new BoardPosition(oldPositionCoordinate);
+        } catch (InvalidBoardPositionException e) {
+            throw new InvalidMoveException("Invalid move!");
+        }
+        this.packed = pack(oldPosition.getSquareIndex(), newPosition.getSquareIndex(), piece, PROMOTING,
+                promotionTo.getPiece(), taking);
+    }
+
+    // Creates the Move object for a packed move
+    public static Move fromPacked(int move) {
+        ColouredPiece piece = ColouredPiece.get(getPieceIndex(move));
+        BoardPosition oldPosition = BoardPosition.fromSquareIndex(getOldSquare(move));
+        BoardPosition newPosition = BoardPosition.fromSquareIndex(getNewSquare(move));
+        try {
+            switch (getType(move)) {
+                case EN_PASSANT:
+                    return new Move("En passant", piece, newPosition, oldPosition.toString(),
+                            BoardPosition.fromSquareIndex(getTakeSquare(move)));
+                case CASTLING:
+                    return new Move("Castling", piece, newPosition, ColouredPiece.get(Piece.ROOK, piece.getColour()),
+                            BoardPosition.fromSquareIndex(getCastlingNewRookSquare(move)));
+                case PROMOTING:
+                    return new Move("Promoting", piece, newPosition, oldPosition.toString(), isTaking(move),
+                            ColouredPiece.get(getPromotionPiece(move), piece.getColour()));
+                default:
+                    return new Move(piece, oldPosition, newPosition, oldPosition.toString(), isTaking(move));
+            }
+        } catch (InvalidMoveException e) {
+            // This should never happen
+            System.out.println("Something's wrong!");
+            return null;
+        }
+    }
+
+    // Packs a move into an int. From the lowest bit: 6 bits for the old square, 6 for the new square, 4 for the moving
+    // piece's bitboard index, 2 for the type of move, 3 for the piece promoted to and 1 for whether it takes.
+    public static int pack(int oldSquare, int newSquare, ColouredPiece piece, int type, Piece promotionTo,
+                           boolean taking) {
+        return oldSquare | (newSquare << 6) | (piece.getBitboardIndex() << 12) | (type << 16)
+                | ((promotionTo == null ? 0 : promotionTo.ordinal()) << 18) | (taking ? 1 << 21 : 0);
+    }
+
+    public static int getOldSquare(int move) {
+        return move & 63;
+    }
+
+    public static int getNewSquare(int move) {
+        return (move >>> 6) & 63;
+    }
+
+    // Board.getBitboardIndex of the moving piece
+    public static int getPieceIndex(int move) {
+        return (move >>> 12) & 15;
+    }
+
+    public static Piece getPiece(int move) {
+        return pieces[getPieceIndex(move) % 6];
+    }
+
+    public static PlayerColour getColour(int move) {
+        return getPieceIndex(move) < 6 ? PlayerColour.WHITE : PlayerColour.BLACK;
+    }
+
+    // NORMAL, EN_PASSANT, CASTLING or PROMOTING
+    public static int getType(int move) {
+        return (move >>> 16) & 3;
+    }
+
+    // Only meaningful for promotions
+    public static Piece getPromotionPiece(int move) {
+        return pieces[(move >>> 18) & 7];
+    }
+
+    public static boolean isTaking(int move) {
+        return (move & (1 << 21)) != 0;
+    }
+
+    // The square of the piece taken. Only different to the new square for en passant.
+    public static int getTakeSquare(int move) {
+        if (getType(move) == EN_PASSANT) {
+            return getColour(move) == PlayerColour.WHITE ? getNewSquare(move) - 8 : getNewSquare(move) + 8;
+        }
+        return getNewSquare(move);
+    }
+
+    // Where the rook starts when castling. Kingside if the king moves to the g file, otherwise queenside.
+    public static int getCastlingOldRookSquare(int move) {
+        return getNewSquare(move) % 8 == 6 ? getNewSquare(move) + 1 : getNewSquare(move) - 2;
+    }
+
+    // Where the rook ends up when castling, the square the king passes over
+    public static int getCastlingNewRookSquare(int move) {
+        return getNewSquare(move) % 8 == 6 ? getNewSquare(move) - 1 : getNewSquare(move) + 1;
+    }
+
+    public int toPacked() {
+        return packed;
     }
 
     public String toString() {
@@ -169,7 +285,7 @@ public class Move {
             }
             outString += newPosition;
         } else if (specialMove.equals("Castling")) {
-            if (newPosition.equals(kingsideCastlePosition)) {
+            if (newPosition.getColumn() == 6) {
                 outString = "O-O";
             } else {
                 // Queenside
@@ -197,11 +313,16 @@ public class Move {
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof Move) {
-            return toString().equals(((Move)obj).toString());
+            return packed == ((Move) obj).packed;
         }
         return false;
     }
 
+    @Override
+    public int hashCode() {
+        return packed;
+    }
+
     public ColouredPiece getColouredPiece() {
         return piece;
     }
@@ -0,0 +1,65 @@
+package chessboard;
+
+import java.util.Arrays;
+
+/**
+ * A list of moves packed into ints (see Move.pack). The array behind it only ever grows, so a list can be cleared and
+ * refilled every move without creating any garbage.
+ */
+public class MoveList {
+    // No position has more legal moves than this, so a list of legal moves never needs to grow
+    public static final int MAX_LEGAL_MOVES = 256;
+
+    private int[] moves;
+    private int size;
+
+    public MoveList() {
+        this(MAX_LEGAL_MOVES);
+    }
+
+    public MoveList(int capacity) {
+        moves = new int[capacity];
+    }
+
+    public void add(int move) {
+        if (size == moves.length) {
+            moves = Arrays.copyOf(moves, size * 2);
+        }
+        moves[size++] = move;
+    }
+
+    public int get(int index) {
+        return moves[index];
+    }
+
+    public int getLast() {
+        return moves[size - 1];
+    }
+
+    public int removeLast() {
+        return moves[--size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // Makes this list the same as the other list, reusing this list's array if it's big enough
+    public void copyFrom(MoveList other) {
+        if (moves.length < other.size) {
+            moves = new int[other.moves.length];
+        }
+        System.arraycopy(other.moves, 0, moves, 0, other.size);
+        size = other.size;
+    }
+
+    public MoveList clone() {
+        MoveList copy = new MoveList(Math.max(size + 1, 16));
+        copy.copyFrom(this);
+        return copy;
+    }
+}
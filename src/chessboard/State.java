@@ -1,9 +1,6 @@
 package chessboard;
 
-import java.lang.reflect.Array;
 import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
 
 /**
  * Stores the current state of the match, including the board state, who's turn
@@ -20,23 +17,50 @@ public class State {
     public static final int QUEENSIDE_CASTLE = 2;
     public static final int NO_CASTLE = 3;
 
+    // What a pawn can promote to, in the order promotions are generated
+    private static final Piece[] validPromotes = {Piece.BISHOP, Piece.KNIGHT, Piece.QUEEN, Piece.ROOK};
+
     private Board board;
     private PlayerColour turn;
     private int gameStatus;
-    private Board startState;
-    private ArrayList<Move> moveList;
-    private ArrayList<Move> allLegalMoves;
+
+    // Every move made so far and every legal move from here, packed into ints (see Move.pack)
+    private MoveList moveHistory;
+    private MoveList legalMoves;
 
     private int whiteCastlingStatus;
     private int blackCastlingStatus;
 
+    // The square a pawn can move to by taking en passant, or -1 if the last move wasn't a pawn moving two squares
+    private int enPassantSquare;
+
+    // Zobrist key of this position, see getHash
+    private long hash;
+
+    // The keys of every position reached, oldest first. The last key is this position's. Positions before the last
+    // irreversible move (a pawn move, a capture or a change in castling status) can never be repeated, so only the
+    // keys from repetitionStart onwards are checked for threefold repetition, and only those are copied by clone.
+    private long[] repetitionKeys;
+    private int repetitionKeysSize;
+    private int repetitionStart;
+
+    // Everything needed to undo each move made by makeMove, most recent last. Entries are reused so making and
+    // unmaking moves doesn't create any garbage once the stack has grown.
+    private UndoEntry[] undoStack = new UndoEntry[0];
+    private int undoStackSize;
+
 
     public State(Board board, PlayerColour turn, ArrayList<Move> moveList) {
         this.board = board.clone();
-        this.startState = board.clone();
         this.turn = turn;
-        this.moveList = (ArrayList<Move>) moveList.clone();
+        moveHistory = new MoveList(Math.max(16, moveList.size() * 2));
+        for (Move move : moveList) {
+            moveHistory.add(move.toPacked());
+        }
+        legalMoves = new MoveList();
         updateCastlingStatuses();
+        enPassantSquare = moveHistory.size() == 0 ? -1 : getEnPassantSquareAfter(moveHistory.getLast());
+        startRepetitionKeys();
         updateLegalMoves();
         updateGameStatus();
     }
@@ -44,69 +68,242 @@ public class State {
     // Game start state
     public State() {
         board = new Board();
-        startState = new Board();
         turn = PlayerColour.WHITE;
-        moveList = new ArrayList<>();
+        moveHistory = new MoveList(16);
+        legalMoves = new MoveList();
         whiteCastlingStatus = EITHER_CASTLE;
         blackCastlingStatus = EITHER_CASTLE;
+        enPassantSquare = -1;
+        startRepetitionKeys();
         updateLegalMoves();
         gameStatus = IN_PROGRESS;
     }
 
     // Called by clone method so executeMove doesn't take forever by having to call updateCastlingStatus(). No need to
-    // evaluate status since we're cloning a legal state.
-    private State(Board board, Board startState, PlayerColour turn, ArrayList<Move> moveList,
-                 int whiteCastlingStatus, int blackCastlingStatus, int gameStatus, ArrayList<Move> allLegalMoves) {
+    // evaluate status since we're cloning a legal state. The undo stack isn't copied, so the clone can't unmake moves
+    // made before it was cloned.
+    private State(Board board, PlayerColour turn, MoveList moveHistory, int whiteCastlingStatus,
+                  int blackCastlingStatus, int enPassantSquare, long hash, long[] repetitionKeys,
+                  int repetitionKeysSize, int repetitionStart, int gameStatus, MoveList legalMoves) {
         this.board = board.clone();
-        this.startState = startState.clone();
         this.turn = turn;
-        this.moveList = (ArrayList<Move>) moveList.clone();
+        this.moveHistory = moveHistory.clone();
         this.whiteCastlingStatus = whiteCastlingStatus;
         this.blackCastlingStatus = blackCastlingStatus;
+        this.enPassantSquare = enPassantSquare;
+        this.hash = hash;
+        // Only the keys that could still be repeated, leaving room for the next move's key
+        this.repetitionKeysSize = repetitionKeysSize - repetitionStart;
+        this.repetitionKeys = Arrays.copyOfRange(repetitionKeys, repetitionStart, repetitionKeysSize + 1);
+        this.repetitionStart = 0;
         this.gameStatus = gameStatus;
-        this.allLegalMoves = (ArrayList<Move>) allLegalMoves.clone();
+        this.legalMoves = new MoveList();
+        this.legalMoves.copyFrom(legalMoves);
     }
 
     // Execute a move on a board and returns the new board state. Doesn't modify the original board
     public Board executeMoveOnBoard(Board board, Move move) {
         Board newBoard = board.clone();
-        if (move.getSpecialMove().equals("")) {
-            newBoard.moveAndTakePiece(move.getColouredPiece(), move.getNewPosition());
-        } else if (move.getSpecialMove().equals("En passant")) {
-            newBoard.moveAndTakePiece(move.getColouredPiece(), move.getTakePosition());
-            newBoard.moveAndTakePiece(move.getColouredPiece(), move.getNewPosition());
-        } else if (move.getSpecialMove().equals("Castling")) {
-            newBoard.moveAndTakePiece(move.getColouredPiece(), move.getNewPosition());
-            newBoard.moveAndTakePiece(move.getCastlingPiece(), move.getCastlingPosition());
-        } else {
-            // promoting
-            newBoard.moveAndTakePiece(move.getColouredPiece(), move.getNewPosition());
-            newBoard.replacePieceAtPosition(move.getPromotionTo(), move.getNewPosition());
-        }
+        moveOnBoard(newBoard, move.toPacked());
         return newBoard;
     }
 
+    // Moves the pieces on the board. Modifies the board.
+    private static void moveOnBoard(Board board, int move) {
+        int oldSquare = Move.getOldSquare(move);
+        int newSquare = Move.getNewSquare(move);
+        switch (Move.getType(move)) {
+            case Move.EN_PASSANT:
+                board.removePiece(Move.getTakeSquare(move));
+                board.movePiece(oldSquare, newSquare);
+                break;
+            case Move.CASTLING:
+                board.movePiece(oldSquare, newSquare);
+                board.movePiece(Move.getCastlingOldRookSquare(move), Move.getCastlingNewRookSquare(move));
+                break;
+            case Move.PROMOTING:
+                board.removePiece(oldSquare);
+                board.removePiece(newSquare);
+                board.placePiece(ColouredPiece.get(Move.getPromotionPiece(move), Move.getColour(move)), newSquare);
+                break;
+            default:
+                board.movePiece(oldSquare, newSquare);
+        }
+    }
+
+    // Returns the state after the move, leaving this state as it is. Use this when both states are needed afterwards,
+    // otherwise makeMove is much cheaper.
     public State executeMove(Move move) {
+        return executeMove(move.toPacked());
+    }
+
+    // Same as executeMove(Move) for a packed move
+    public State executeMove(int move) {
         State newState = this.clone();
-        newState.setBoard(executeMoveOnBoard(board, move));
-        newState.getMoveList().add(move);
-        newState.changeTurn();
-        newState.updateCastlingStatusesFromLastMove();
-        newState.updateLegalMoves();
-        newState.updateGameStatus();
+        newState.applyMove(move);
         return newState;
     }
 
+    // Makes the move on this state. It can be taken back with unmakeMove.
+    public void makeMove(Move move) {
+        makeMove(move.toPacked());
+    }
+
+    // Same as makeMove(Move) for a packed move
+    public void makeMove(int move) {
+        if (undoStackSize == undoStack.length) {
+            undoStack = Arrays.copyOf(undoStack, Math.max(16, undoStackSize * 2));
+        }
+        if (undoStack[undoStackSize] == null) {
+            undoStack[undoStackSize] = new UndoEntry();
+        }
+        UndoEntry undo = undoStack[undoStackSize++];
+        undo.takeSquare = Move.isTaking(move) ? Move.getTakeSquare(move) : -1;
+        undo.takenPiece = Move.isTaking(move) ? board.getPieceAtSquare(undo.takeSquare) : null;
+        undo.whiteCastlingStatus = whiteCastlingStatus;
+        undo.blackCastlingStatus = blackCastlingStatus;
+        undo.enPassantSquare = enPassantSquare;
+        undo.hash = hash;
+        undo.repetitionStart = repetitionStart;
+        undo.gameStatus = gameStatus;
+        // The entry keeps this position's legal moves and hands over the list it kept last time to be refilled
+        MoveList spareMoves = undo.legalMoves == null ? new MoveList() : undo.legalMoves;
+        undo.legalMoves = legalMoves;
+        legalMoves = spareMoves;
+        applyMove(move);
+    }
+
+    // Takes back the last move made by makeMove, restoring this state to exactly how it was before
+    public void unmakeMove() {
+        if (undoStackSize == 0) {
+            throw new IllegalStateException("No move to unmake");
+        }
+        UndoEntry undo = undoStack[--undoStackSize];
+        int move = moveHistory.removeLast();
+        changeTurn();
+
+        // Put the pieces back
+        board.removePiece(Move.getNewSquare(move));
+        board.placePiece(ColouredPiece.get(Move.getPieceIndex(move)), Move.getOldSquare(move));
+        if (Move.getType(move) == Move.CASTLING) {
+            board.movePiece(Move.getCastlingNewRookSquare(move), Move.getCastlingOldRookSquare(move));
+        }
+        if (undo.takenPiece != null) {
+            board.placePiece(undo.takenPiece, undo.takeSquare);
+        }
+
+        whiteCastlingStatus = undo.whiteCastlingStatus;
+        blackCastlingStatus = undo.blackCastlingStatus;
+        enPassantSquare = undo.enPassantSquare;
+        hash = undo.hash;
+        repetitionKeysSize--;
+        repetitionStart = undo.repetitionStart;
+        gameStatus = undo.gameStatus;
+        // Swap the legal move lists back, so the entry has a spare list for the next makeMove
+        MoveList spareMoves = legalMoves;
+        legalMoves = undo.legalMoves;
+        undo.legalMoves = spareMoves;
+    }
+
+    // Makes the move on this state, updating everything that depends on the position
+    private void applyMove(int move) {
+        int oldWhiteCastlingStatus = whiteCastlingStatus;
+        int oldBlackCastlingStatus = blackCastlingStatus;
+        moveOnBoard(board, move);
+        moveHistory.add(move);
+        changeTurn();
+        updateCastlingStatusesFromLastMove();
+        enPassantSquare = getEnPassantSquareAfter(move);
+        updateRepetitionKeys(Move.getPiece(move) == Piece.PAWN || Move.isTaking(move)
+                || whiteCastlingStatus != oldWhiteCastlingStatus || blackCastlingStatus != oldBlackCastlingStatus);
+        updateLegalMoves();
+        updateGameStatus();
+    }
+
+    // A 64 bit Zobrist key of the position: the pieces, who's turn it is, the castling statuses and the en passant
+    // file. Positions with the same key are (almost certainly) the same position.
+    public long getHash() {
+        return hash;
+    }
+
+    // Whether this position has been reached before in the game
+    public boolean isRepeatedPosition() {
+        return getRepetitionCount() > 1;
+    }
+
+    // How many times this position has been reached, including now. Only every second position has the same player to
+    // move, so only those could be the same as this one.
+    private int getRepetitionCount() {
+        int repetitions = 1;
+        for (int i = repetitionKeysSize - 3; i >= repetitionStart; i -= 2) {
+            if (repetitionKeys[i] == hash) {
+                repetitions++;
+            }
+        }
+        return repetitions;
+    }
+
+    // Works out this position's key. The board keeps its part of the key up to date, so this only adds the rest.
+    private long calculateHash() {
+        long newHash = board.getKey() ^ Zobrist.turnKey(turn)
+                ^ Zobrist.castlingKey(PlayerColour.WHITE, whiteCastlingStatus)
+                ^ Zobrist.castlingKey(PlayerColour.BLACK, blackCastlingStatus);
+        // The en passant file only matters if a pawn can actually take en passant, otherwise the position is the same
+        // as if the last pawn had moved one square at a time.
+        if (enPassantSquare != -1 && (AttackTables.pawnAttacks(PlayerColour.getOtherColour(turn), enPassantSquare)
+                & board.getBitboard(Piece.PAWN, turn)) != 0) {
+            newHash ^= Zobrist.enPassantKey(enPassantSquare % 8);
+        }
+        return newHash;
+    }
+
+    // Starts the repetition keys at this position, for a state with no known history
+    private void startRepetitionKeys() {
+        hash = calculateHash();
+        repetitionKeys = new long[] {hash};
+        repetitionKeysSize = 1;
+        repetitionStart = 0;
+    }
+
+    // Works out the new key after a move and records it. After an irreversible move none of the earlier positions can
+    // be repeated, so they're no longer checked.
+    private void updateRepetitionKeys(boolean irreversible) {
+        hash = calculateHash();
+        if (irreversible) {
+            repetitionStart = repetitionKeysSize;
+        }
+        if (repetitionKeysSize == repetitionKeys.length) {
+            repetitionKeys = Arrays.copyOf(repetitionKeys, repetitionKeysSize * 2);
+        }
+        repetitionKeys[repetitionKeysSize++] = hash;
+    }
+
+    // Creates a Move object for every legal move. The search should use getLegalMoveCount and getLegalMove instead.
     public ArrayList<Move> getAllLegalMoves() {
-        return new ArrayList<>(Collections.unmodifiableList(allLegalMoves));
+        ArrayList<Move> moves = new ArrayList<>(legalMoves.size());
+        for (int i = 0; i < legalMoves.size(); i++) {
+            moves.add(Move.fromPacked(legalMoves.get(i)));
+        }
+        return moves;
+    }
+
+    public int getLegalMoveCount() {
+        return legalMoves.size();
+    }
+
+    // The legal move at that index, packed into an int (see Move.pack)
+    public int getLegalMove(int index) {
+        return legalMoves.get(index);
     }
 
     // Determines whether the player who's turn it is has lost or drawn the game. Note: you can never win as it becomes
     // your turn.
     private void updateGameStatus() {
+        gameStatus = IN_PROGRESS;
+
         // Determine whether a checkmate or stalemate has occurred
 
-        if (allLegalMoves.size() == 0) {
+        if (legalMoves.size() == 0) {
             // Determine whether the king is in check or not
             if (isKingInCheck(board, turn)) {
                 if (turn == PlayerColour.WHITE) {
@@ -121,56 +318,46 @@ public class State {
         }
 
         // Determine if both sides have invalid material
+        if (board.getPieceCount() <= 4) {
+            updateGameStatusFromMaterial();
+        }
+
+        // Threefold repetition
+        if (getRepetitionCount() >= 3) {
+            gameStatus = DRAW;
+        }
+
+        // TODO 50 move rule
+
+    }
+
+    // Sets the game to a draw if neither side has enough pieces to checkmate. Only called with at most four pieces on
+    // the board, since it can't be a draw otherwise.
+    private void updateGameStatusFromMaterial() {
+        ColouredPiece whiteKing = ColouredPiece.get(Piece.KING, PlayerColour.WHITE);
+        ColouredPiece blackKing = ColouredPiece.get(Piece.KING, PlayerColour.BLACK);
         // King vs King
-        HashSet<ColouredPiece> kingKing = new HashSet<>(Arrays.asList(
-                new ColouredPiece(Piece.KING, PlayerColour.WHITE),
-                new ColouredPiece(Piece.KING, PlayerColour.BLACK)));
-        if (board.compareBoardWithPieceList(kingKing)) {
+        if (board.hasExactlyPieces(whiteKing, blackKing)) {
             gameStatus = DRAW;
         }
 
-        for (int i = 0; i < 2; i++) {
-            // 0 = white, 1 = black
+        for (PlayerColour colour : PlayerColour.values()) {
             // King vs King Bishop
-            HashSet<ColouredPiece> kingKingBishop = new HashSet<>(Arrays.asList(
-                    new ColouredPiece(Piece.KING, PlayerColour.WHITE),
-                    new ColouredPiece(Piece.KING, PlayerColour.BLACK),
-                    new ColouredPiece(Piece.BISHOP, PlayerColour.values()[i])));
-            if (board.compareBoardWithPieceList(kingKingBishop)) {
+            if (board.hasExactlyPieces(whiteKing, blackKing, ColouredPiece.get(Piece.BISHOP, colour))) {
                 gameStatus = DRAW;
             }
 
             // King vs King Knight
-            HashSet<ColouredPiece> kingKingKnight = new HashSet<>(Arrays.asList(
-                    new ColouredPiece(Piece.KING, PlayerColour.WHITE),
-                    new ColouredPiece(Piece.KING, PlayerColour.BLACK),
-                    new ColouredPiece(Piece.KNIGHT, PlayerColour.values()[i])));
-            if (board.compareBoardWithPieceList(kingKingKnight)) {
+            if (board.hasExactlyPieces(whiteKing, blackKing, ColouredPiece.get(Piece.KNIGHT, colour))) {
                 gameStatus = DRAW;
             }
         }
 
         // King Bishop vs King Bishop (with Bishops on the same colour)
-        HashSet<ColouredPiece> kingKingBishopBishop = new HashSet<>(Arrays.asList(
-                new ColouredPiece(Piece.KING, PlayerColour.WHITE),
-                new ColouredPiece(Piece.KING, PlayerColour.BLACK),
-                new ColouredPiece(Piece.BISHOP, PlayerColour.WHITE),
-                new ColouredPiece(Piece.BISHOP, PlayerColour.BLACK)));
-        if (board.compareBoardWithPieceList(kingKingBishopBishop)) {
+        ColouredPiece whiteBishop = ColouredPiece.get(Piece.BISHOP, PlayerColour.WHITE);
+        ColouredPiece blackBishop = ColouredPiece.get(Piece.BISHOP, PlayerColour.BLACK);
+        if (board.hasExactlyPieces(whiteKing, blackKing, whiteBishop, blackBishop)) {
             // Verify that both the bishops are on the same coloured squares
-            Set<ColouredPiece> pieces = board.getPieces();
-            ColouredPiece whiteBishop = null;
-            ColouredPiece blackBishop = null;
-            for (ColouredPiece piece : pieces) {
-                if (piece.getPiece().equals(Piece.BISHOP)) {
-                    if (piece.getColour().equals(PlayerColour.WHITE)) {
-                        whiteBishop = piece;
-                    } else {
-                        blackBishop = piece;
-                    }
-                }
-            }
-
             if (BoardPosition.lightSquares.contains(board.getPiecesPosition(whiteBishop))) {
                 if (BoardPosition.lightSquares.contains(board.getPiecesPosition(blackBishop))) {
                     gameStatus = DRAW;
@@ -182,550 +369,298 @@ public class State {
                 }
             }
         }
-
-        // Threefold repetition
-        // Generate two arrayLists: consisting of all the board states throughout the game, for each player's turn
-        ArrayList<Board> allBoardStates1 = new ArrayList<>();
-        ArrayList<Board> allBoardStates2 = new ArrayList<>();
-
-        Board tempBoard = startState;
-        allBoardStates1.add(tempBoard);
-        for (int i = 0; i < moveList.size(); i ++) {
-            tempBoard = executeMoveOnBoard(tempBoard, moveList.get(i));
-            if (i % 2 == 0) {
-                allBoardStates2.add(tempBoard);
-            } else {
-                allBoardStates1.add(tempBoard);
-            }
-        }
-
-        HashMap<Board, Integer> allBoardCount1 = (HashMap<Board, Integer>) allBoardStates1.stream().collect(Collectors.toMap(Function.identity(), b -> 1));
-        HashMap<Board, Integer> allBoardCount2 = (HashMap<Board, Integer>) allBoardStates2.stream().collect(Collectors.toMap(Function.identity(), b -> 1));
-
-        for (Board board1: allBoardStates1) {
-            for (Board board2: allBoardStates1) {
-                if (board2 != board1 && board1.sameBoard(board2)) {
-                    allBoardCount1.put(board1, allBoardCount1.get(board1) + 1);
-                }
-            }
-
-            if (allBoardCount1.get(board1) >= 3) {
-                gameStatus = DRAW;
-            }
-        }
-
-        for (Board board1: allBoardStates2) {
-            for (Board board2: allBoardStates2) {
-                if (board2 != board1 && board1.sameBoard(board2)) {
-                    allBoardCount2.put(board1, allBoardCount2.get(board1) + 1);
-                }
-            }
-
-            if (allBoardCount2.get(board1) >= 3) {
-                gameStatus = DRAW;
-            }
-        }
-
-        // TODO 50 move rule
-
     }
 
     // Since this method is called every time a move is executed, we only need to check the very last move to ensure
     // the castling statuses are correct.
     private void updateCastlingStatusesFromLastMove() {
-        updateCastlingStatusFromSingleMove(moveList.get(moveList.size() - 1));
-
-    }
-
-    private void updateCastlingStatusFromSingleMove(Move move) {
-        try {
-            // The only way a player can no longer castle is by moving their rook, moving their king or by having their
-            // rook taken.
-            if (move.getColouredPiece().getColour() == PlayerColour.WHITE) {
-                // Opposition can't kingside castle if you take their rook on h8
-                if (move.isTaking() && move.getTakePosition().equals(new BoardPosition(7, 7))) {
-                    if (blackCastlingStatus == NO_CASTLE) {
-                        // Nothing to do
-                    } else if (blackCastlingStatus == KINGSIDE_CASTLE) {
-                        blackCastlingStatus = NO_CASTLE;
-                    } else {
-                        blackCastlingStatus = QUEENSIDE_CASTLE;
-                    }
-                }
-
-                // Opposition can't queenside castle if you take their rook on a8
-                if (move.isTaking() && move.getTakePosition().equals(new BoardPosition(0, 7))) {
-                    if (blackCastlingStatus == NO_CASTLE) {
-                        // Nothing to do
-                    } else if (blackCastlingStatus == QUEENSIDE_CASTLE) {
-                        blackCastlingStatus = NO_CASTLE;
-                    } else {
-                        blackCastlingStatus = KINGSIDE_CASTLE;
-                    }
-                }
-
-                if (whiteCastlingStatus == NO_CASTLE) {
-                    // Can't ever castle if you couldn't previously
-                    return;
-                }
-
-                if (move.getSpecialMove().equals("Castling")) {
-                    // Can't castle again once you've castled
-                    whiteCastlingStatus = NO_CASTLE;
-                    return;
-                }
-
-                if (move.getColouredPiece().getPiece() == Piece.KING) {
-                    // Can't castle if you move the king
-                    whiteCastlingStatus = NO_CASTLE;
-                    return;
-                }
+        updateCastlingStatusFromSingleMove(moveHistory.getLast());
+    }
 
-                if (move.getColouredPiece().getPiece() == Piece.ROOK) {
-                    // Can't kingside castle if you move the rook on h1
-                    if (move.getOldPosition().equals(new BoardPosition(7, 0))) {
-                        if (whiteCastlingStatus == KINGSIDE_CASTLE) {
-                            whiteCastlingStatus = NO_CASTLE;
-                            return;
-                        } else {
-                            whiteCastlingStatus = QUEENSIDE_CASTLE;
-                            return;
-                        }
-                    }
-                    // Can't queenside castle if you move the rook on a1
-                    if (move.getOldPosition().equals(new BoardPosition(0, 0))) {
-                        if (whiteCastlingStatus == QUEENSIDE_CASTLE) {
-                            whiteCastlingStatus = NO_CASTLE;
-                            return;
-                        } else {
-                            whiteCastlingStatus = KINGSIDE_CASTLE;
-                            return;
-                        }
-                    }
-                }
+    private void updateCastlingStatusFromSingleMove(int move) {
+        // The only way a player can no longer castle is by moving their rook, moving their king (which includes
+        // castling) or by having their rook taken.
+        if (Move.getPiece(move) == Piece.KING) {
+            if (Move.getColour(move) == PlayerColour.WHITE) {
+                whiteCastlingStatus = NO_CASTLE;
             } else {
-                // black
-
-                // Opposition can't kingside castle if you take their rook on h1
-                if (move.isTaking() && move.getTakePosition().equals(new BoardPosition(7, 0))) {
-                    if (whiteCastlingStatus == NO_CASTLE) {
-                        // Nothing to do
-                    } else if (whiteCastlingStatus == KINGSIDE_CASTLE) {
-                        whiteCastlingStatus = NO_CASTLE;
-                    } else {
-                        whiteCastlingStatus = QUEENSIDE_CASTLE;
-                    }
-                }
-
-                // Opposition can't queenside castle if you take their rook on a1
-                if (move.isTaking() && move.getTakePosition().equals(new BoardPosition(0, 0))) {
-                    if (whiteCastlingStatus == NO_CASTLE) {
-                        // Nothing to do
-                    }
-                    else if (whiteCastlingStatus == QUEENSIDE_CASTLE) {
-                        whiteCastlingStatus = NO_CASTLE;
-                    } else {
-                        whiteCastlingStatus = KINGSIDE_CASTLE;
-                    }
-                }
-
-                if (blackCastlingStatus == NO_CASTLE) {
-                    // Can't ever castle if you couldn't previously
-                    return;
-                }
-
-                if (move.getSpecialMove().equals("Castling")) {
-                    // Can't castle again once you've castled
-                    blackCastlingStatus = NO_CASTLE;
-                    return;
-                }
+                blackCastlingStatus = NO_CASTLE;
+            }
+        }
+        // Once a rook's starting square has been moved from or taken on, that rook has either moved or been taken
+        removeCastlingFromRookSquare(Move.getOldSquare(move));
+        if (Move.isTaking(move)) {
+            removeCastlingFromRookSquare(Move.getTakeSquare(move));
+        }
+    }
 
-                if (move.getColouredPiece().getPiece() == Piece.KING) {
-                    // Can't castle if you move the king
-                    blackCastlingStatus = NO_CASTLE;
-                    return;
-                }
+    // Removes the castle with the rook that starts on that square, if it's one of the rooks' starting squares
+    private void removeCastlingFromRookSquare(int square) {
+        if (square == Board.square(7, 0)) {
+            whiteCastlingStatus = removeCastle(whiteCastlingStatus, KINGSIDE_CASTLE);
+        } else if (square == Board.square(0, 0)) {
+            whiteCastlingStatus = removeCastle(whiteCastlingStatus, QUEENSIDE_CASTLE);
+        } else if (square == Board.square(7, 7)) {
+            blackCastlingStatus = removeCastle(blackCastlingStatus, KINGSIDE_CASTLE);
+        } else if (square == Board.square(0, 7)) {
+            blackCastlingStatus = removeCastle(blackCastlingStatus, QUEENSIDE_CASTLE);
+        }
+    }
 
-                if (move.getColouredPiece().getPiece() == Piece.ROOK) {
-                    // Can't kingside castle if you move the rook on h8
-                    if (move.getOldPosition().equals(new BoardPosition(7, 7))) {
-                        if (blackCastlingStatus == KINGSIDE_CASTLE) {
-                            blackCastlingStatus = NO_CASTLE;
-                            return;
-                        } else {
-                            blackCastlingStatus = QUEENSIDE_CASTLE;
-                            return;
-                        }
-                    }
-                    // Can't queenside castle if you move the rook on a8
-                    if (move.getOldPosition().equals(new BoardPosition(0, 7))) {
-                        if (blackCastlingStatus == QUEENSIDE_CASTLE) {
-                            blackCastlingStatus = NO_CASTLE;
-                            return;
-                        } else {
-                            blackCastlingStatus = KINGSIDE_CASTLE;
-                            return;
-                        }
-                    }
-                }
-            }
-        } catch (InvalidBoardPositionException e) {
-            // this should never happen
-            System.out.println("Something's wrong!");
+    // The castling status after losing the castle on one side (KINGSIDE_CASTLE or QUEENSIDE_CASTLE)
+    private static int removeCastle(int castlingStatus, int side) {
+        if (castlingStatus == EITHER_CASTLE) {
+            return side == KINGSIDE_CASTLE ? QUEENSIDE_CASTLE : KINGSIDE_CASTLE;
+        } else if (castlingStatus == side) {
+            return NO_CASTLE;
         }
+        return castlingStatus;
     }
 
     // Checking from scratch is neccessary if a game is imported. No need for speed here.
     private void updateCastlingStatuses() {
-        moveList.forEach(this::updateCastlingStatusFromSingleMove);
+        for (int i = 0; i < moveHistory.size(); i++) {
+            updateCastlingStatusFromSingleMove(moveHistory.get(i));
+        }
     }
 
-    // Generates pseudo legal moves then verifies if the king is in check. To be faster, could just generate legal
-    // moves (though this problem is tricky)
+    // Generates only legal moves. The pieces giving check and the pieces pinned to our king are found once, then each
+    // piece's moves are restricted to squares that deal with the check and, if it's pinned, to the line through the
+    // king. King moves and en passant are verified by looking for attacks on the king with the move made.
     private void updateLegalMoves() {
-        allLegalMoves = new ArrayList<>();
-
-        // Regular moves
-        for (ColouredPiece piece: board.getPieces(turn)) {
-            BoardPosition oldPosition = board.getPiecesPosition(piece);
-            String oldPositionCoordinate = oldPosition.toString();
-            for (BoardPosition newPosition: getValidMovePositions(board, piece)) {
-                boolean taking = board.getPieceAtPosition(newPosition) != null;
-                allLegalMoves.add(new Move(piece, oldPosition, newPosition, oldPositionCoordinate, taking));
+        legalMoves.clear();
+
+        PlayerColour them = PlayerColour.getOtherColour(turn);
+        long ownPieces = board.getColourBitboard(turn);
+        long enemyPieces = board.getColourBitboard(them);
+        long occupied = board.getOccupied();
+        long king = board.getBitboard(Piece.KING, turn);
+        // A board without our king can't have checks or pins
+        int kingSquare = king == 0 ? -1 : Long.numberOfTrailingZeros(king);
+
+        long checkers = 0;
+        long pinned = 0;
+        // The squares non-king pieces may move to: anywhere when not in check, otherwise taking the checker or
+        // blocking it
+        long checkMask = ~0L;
+        if (kingSquare != -1) {
+            checkers = getAttackers(board, kingSquare, them, occupied);
+            pinned = getPinnedPieces(board, kingSquare, turn);
+            if (Long.bitCount(checkers) > 1) {
+                // Double check, only the king can move
+                checkMask = 0;
+            } else if (checkers != 0) {
+                checkMask = checkers | AttackTables.squaresBetween(kingSquare, Long.numberOfTrailingZeros(checkers));
             }
-        }
 
-        // Castling
-        // Can only castle while not in check
-        if (!isKingInCheck(board, turn)) {
-            // Determine all the squares attacked by opposing pieces to check if we can castle.
-            ArrayList<BoardPosition> allAttackedSquares = new ArrayList<>();
-            for (ColouredPiece piece : board.getPieces(PlayerColour.getOtherColour(turn))) {
-                for (BoardPosition position: getAttackedSquares(board, piece)) {
-                    if (!allAttackedSquares.contains(position)) {
-                        allAttackedSquares.add(position);
-                    }
+            // King moves. The king is removed from the occupancy so sliders attack through its old square.
+            long newSquares = AttackTables.kingAttacks(kingSquare) & ~ownPieces;
+            long kingMoves = 0;
+            while (newSquares != 0) {
+                int newSquare = Long.numberOfTrailingZeros(newSquares);
+                newSquares &= newSquares - 1;
+                long newBit = 1L << newSquare;
+                if ((getAttackers(board, newSquare, them, occupied ^ king) & ~newBit) == 0) {
+                    kingMoves |= newBit;
                 }
             }
+            addMoves(ColouredPiece.get(Piece.KING, turn), kingSquare, kingMoves, enemyPieces);
+        }
 
-            BoardPosition castlingSquareOne;
-            BoardPosition castlingSquareTwo;
-            BoardPosition castlingSquareThree;
-            BoardPosition oldKingPosition;
-            BoardPosition newKingPosition;
-            BoardPosition oldRookPosition;
-            BoardPosition newRookPosition;
-            try {
-                if (turn.equals(PlayerColour.WHITE)) {
-                    // Kingside
-                    if (whiteCastlingStatus == EITHER_CASTLE || whiteCastlingStatus == KINGSIDE_CASTLE) {
-                        castlingSquareOne = new BoardPosition(5, 0);
-                        castlingSquareTwo = new BoardPosition(6, 0);
-                        oldKingPosition = new BoardPosition(4, 0);
-                        newKingPosition = new BoardPosition(6, 0);
-                        oldRookPosition = new BoardPosition(7, 0);
-                        newRookPosition = new BoardPosition(5, 0);
-                        Move castle = verifyAndMakeCastleMove(new ArrayList<>(Arrays.asList(castlingSquareOne,
-                                castlingSquareTwo)), board, allAttackedSquares, oldKingPosition, newKingPosition,
-                                oldRookPosition, newRookPosition);
-                        if (castle != null) {
-                            allLegalMoves.add(castle);
-                        }
-                    }
-                    // Queenside
-                    if (whiteCastlingStatus == EITHER_CASTLE || whiteCastlingStatus == QUEENSIDE_CASTLE) {
-                        castlingSquareOne = new BoardPosition(1, 0);
-                        castlingSquareTwo = new BoardPosition(2, 0);
-                        castlingSquareThree = new BoardPosition(3, 0);
-                        oldKingPosition = new BoardPosition(4, 0);
-                        newKingPosition = new BoardPosition(2, 0);
-                        oldRookPosition = new BoardPosition(0, 0);
-                        newRookPosition = new BoardPosition(3, 0);
-                        Move castle = verifyAndMakeCastleMove(new ArrayList<>(Arrays.asList(castlingSquareOne,
-                                castlingSquareTwo, castlingSquareThree)), board, allAttackedSquares, oldKingPosition,
-                                newKingPosition, oldRookPosition, newRookPosition);
-                        if (castle != null) {
-                            allLegalMoves.add(castle);
-                        }
-                    }
+        // Regular moves for everything but the king
+        for (Piece pieceType : Piece.values()) {
+            if (pieceType == Piece.KING) {
+                continue;
+            }
+            ColouredPiece piece = ColouredPiece.get(pieceType, turn);
+            long pieces = board.getBitboard(piece);
+            while (pieces != 0) {
+                int oldSquare = Long.numberOfTrailingZeros(pieces);
+                pieces &= pieces - 1;
+                long newSquares = getValidMoveSquares(board, piece, oldSquare) & checkMask;
+                if ((pinned & (1L << oldSquare)) != 0) {
+                    newSquares &= AttackTables.line(kingSquare, oldSquare);
+                }
+                if (pieceType == Piece.PAWN) {
+                    addPawnMoves(piece, oldSquare, newSquares, enemyPieces);
                 } else {
-                    // Black
-                    // Kingside
-                    if (blackCastlingStatus == EITHER_CASTLE || blackCastlingStatus == KINGSIDE_CASTLE) {
-                        castlingSquareOne = new BoardPosition(5, 7);
-                        castlingSquareTwo = new BoardPosition(6, 7);
-                        oldKingPosition = new BoardPosition(4, 7);
-                        newKingPosition = new BoardPosition(6, 7);
-                        oldRookPosition = new BoardPosition(7, 7);
-                        newRookPosition = new BoardPosition(5, 7);
-                        Move castle = verifyAndMakeCastleMove(new ArrayList<>(Arrays.asList(castlingSquareOne,
-                                castlingSquareTwo)), board, allAttackedSquares, oldKingPosition, newKingPosition,
-                                oldRookPosition, newRookPosition);
-                        if (castle != null) {
-                            allLegalMoves.add(castle);
-                        }
-                    }
-                    // Queenside
-                    if (blackCastlingStatus == EITHER_CASTLE || blackCastlingStatus == QUEENSIDE_CASTLE) {
-                        castlingSquareOne = new BoardPosition(1, 7);
-                        castlingSquareTwo = new BoardPosition(2, 7);
-                        castlingSquareThree = new BoardPosition(3, 7);
-                        oldKingPosition = new BoardPosition(4, 7);
-                        newKingPosition = new BoardPosition(2, 7);
-                        oldRookPosition = new BoardPosition(0, 7);
-                        newRookPosition = new BoardPosition(3, 7);
-                        Move castle = verifyAndMakeCastleMove(new ArrayList<>(Arrays.asList(castlingSquareOne,
-                                castlingSquareTwo, castlingSquareThree)), board, allAttackedSquares, oldKingPosition,
-                                newKingPosition, oldRookPosition, newRookPosition);
-                        if (castle != null) {
-                            allLegalMoves.add(castle);
-                        }
-                    }
+                    addMoves(piece, oldSquare, newSquares, enemyPieces);
                 }
-            } catch (InvalidBoardPositionException e) {
-                // This should never happen
-                System.out.println("Something's wrong");
             }
         }
 
-        // Promotion
-        for (Move move : (ArrayList<Move>) allLegalMoves.clone()) {
-            if (move.getColouredPiece().getPiece().equals(Piece.PAWN)
-                    && (move.getNewPosition().getRow() == 0 || move.getNewPosition().getRow() == 7)) {
-                // Remove this invalid move from the list and replace it with promotions
-                allLegalMoves.remove(move);
-                ArrayList<Piece> validPromotes = new ArrayList<>(Arrays.asList(Piece.BISHOP, Piece.KNIGHT, Piece.QUEEN, Piece.ROOK));
-                for (Piece newPiece : validPromotes) {
-                    try {
-                        allLegalMoves.add(new Move("Promoting", move.getColouredPiece(), move.getNewPosition(),
-                                move.getOldPositionCoordinate(), move.isTaking(), new ColouredPiece(newPiece, turn)));
-                    } catch (InvalidMoveException e) {
-                        e.printStackTrace();
-                    }
-                }
+        // Castling
+        // Can only castle while not in check
+        if (kingSquare != -1 && checkers == 0) {
+            int castlingStatus = turn == PlayerColour.WHITE ? whiteCastlingStatus : blackCastlingStatus;
+            int row = turn == PlayerColour.WHITE ? 0 : 7;
+            // Kingside
+            if (castlingStatus == EITHER_CASTLE || castlingStatus == KINGSIDE_CASTLE) {
+                addCastleMoveIfValid(row, 7, 6, 5);
+            }
+            // Queenside
+            if (castlingStatus == EITHER_CASTLE || castlingStatus == QUEENSIDE_CASTLE) {
+                addCastleMoveIfValid(row, 0, 2, 3);
             }
         }
 
         // En passant
-        if (moveList.size() > 0) {
-            Move lastMove = moveList.get(moveList.size() - 1);
-            if (turn.equals(PlayerColour.WHITE)) {
-                if (lastMove.getColouredPiece().getPiece().equals(Piece.PAWN) && lastMove.getSpecialMove()
-                        .equals("") && lastMove.getOldPosition().getRow() == 6
-                        && lastMove.getNewPosition().getRow() == 4) {
-                    // We can possibly en passant
-                    ArrayList<BoardPosition> enPassantPositions = new ArrayList<>();
-                    try {
-                        enPassantPositions.add(new BoardPosition(lastMove.getOldPosition().getColumn() + 1, 4));
-                    } catch (InvalidBoardPositionException e) {
-                        // This is fine. It means the pawn to be en passant-ed is on the edge of the board
-                    }
-                    try {
-                        enPassantPositions.add(new BoardPosition(lastMove.getOldPosition().getColumn() - 1, 4));
-                    } catch (InvalidBoardPositionException e) {
-                        // This is fine. It means the pawn to be en passant-ed is on the edge of the board
-                    }
-                    for (BoardPosition enPassantPosition : enPassantPositions) {
-                        ColouredPiece enPassantPawn = board.getPieceAtPosition(enPassantPosition);
-                        if (enPassantPawn != null && Board.comparePieces(enPassantPawn,
-                                new ColouredPiece(Piece.PAWN, PlayerColour.WHITE))) {
-                            try {
-                                BoardPosition newPosition = new BoardPosition(lastMove.getOldPosition().getColumn(), 5);
-                                String oldPositionCoordinate = enPassantPosition.toString();
-                                allLegalMoves.add(new Move("En passant", enPassantPawn, newPosition,
-                                        oldPositionCoordinate, lastMove.getNewPosition()));
-                            } catch (InvalidBoardPositionException e) {
-                                // This should never happen
-                                System.out.println("Something's wrong");
-                            } catch (InvalidMoveException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                }
-            } else {
-                // Black
-                if (lastMove.getColouredPiece().getPiece().equals(Piece.PAWN) && lastMove.getSpecialMove()
-                        .equals("") && lastMove.getOldPosition().getRow() == 1
-                        && lastMove.getNewPosition().getRow() == 3) {
-                    // We can possibly en passant
-                    ArrayList<BoardPosition> enPassantPositions = new ArrayList<>();
-                    try {
-                        enPassantPositions.add(new BoardPosition(lastMove.getOldPosition().getColumn() + 1, 3));
-                    } catch (InvalidBoardPositionException e) {
-                        // This is fine. It means the pawn to be en passant-ed is on the edge of the board
-                    }
-                    try {
-                        enPassantPositions.add(new BoardPosition(lastMove.getOldPosition().getColumn() - 1, 3));
-                    } catch (InvalidBoardPositionException e) {
-                        // This is fine. It means the pawn to be en passant-ed is on the edge of the board
-                    }
-                    for (BoardPosition enPassantPosition : enPassantPositions) {
-                        ColouredPiece enPassantPawn = board.getPieceAtPosition(enPassantPosition);
-                        if (enPassantPawn != null && Board.comparePieces(enPassantPawn,
-                                new ColouredPiece(Piece.PAWN, PlayerColour.BLACK))) {
-                            try {
-                                BoardPosition newPosition = new BoardPosition(lastMove.getOldPosition().getColumn(), 2);
-                                String oldPositionCoordinate = enPassantPosition.toString();
-                                allLegalMoves.add(new Move("En passant", enPassantPawn, newPosition,
-                                        oldPositionCoordinate, lastMove.getNewPosition()));
-                            } catch (InvalidBoardPositionException e) {
-                                // This should never happen
-                                System.out.println("Something's wrong");
-                            } catch (InvalidMoveException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }
-                }
+        if (enPassantSquare != -1) {
+            ColouredPiece pawn = ColouredPiece.get(Piece.PAWN, turn);
+            int takeSquare = enPassantSquare + (turn == PlayerColour.WHITE ? -8 : 8);
+            long takeBit = 1L << takeSquare;
+            long enPassantPawns = AttackTables.pawnAttacks(them, enPassantSquare) & board.getBitboard(pawn);
+            while (enPassantPawns != 0) {
+                int oldSquare = Long.numberOfTrailingZeros(enPassantPawns);
+                enPassantPawns &= enPassantPawns - 1;
+                // Two pawns leave their squares at once, which can uncover an attack on the king along the row even
+                // when neither pawn is pinned on its own, so just make the capture and look for attacks on the king.
+                long occupiedAfter = (occupied ^ (1L << oldSquare) ^ takeBit) | (1L << enPassantSquare);
+                if (kingSquare != -1 && (getAttackers(board, kingSquare, them, occupiedAfter) & ~takeBit) != 0) {
+                    continue;
+                }
+                legalMoves.add(Move.pack(oldSquare, enPassantSquare, pawn, Move.EN_PASSANT, null, true));
             }
         }
+    }
 
+    // Adds a move from oldSquare to every square in newSquares
+    private void addMoves(ColouredPiece piece, int oldSquare, long newSquares, long enemyPieces) {
+        while (newSquares != 0) {
+            int newSquare = Long.numberOfTrailingZeros(newSquares);
+            newSquares &= newSquares - 1;
+            boolean taking = (enemyPieces & (1L << newSquare)) != 0;
+            legalMoves.add(Move.pack(oldSquare, newSquare, piece, Move.NORMAL, null, taking));
+        }
+    }
 
-        // Verify each move is legal
-        allLegalMoves = (ArrayList<Move>) allLegalMoves.stream().filter(m -> !isKingInCheck(executeMoveOnBoard(board, m), turn))
-                .collect(Collectors.toList());
+    // Same as addMoves, but a pawn reaching the last rank is replaced with a promotion to each piece it could become
+    private void addPawnMoves(ColouredPiece pawn, int oldSquare, long newSquares, long enemyPieces) {
+        int lastRow = pawn.getColour() == PlayerColour.WHITE ? 7 : 0;
+        if (oldSquare / 8 + (pawn.getColour() == PlayerColour.WHITE ? 1 : -1) != lastRow) {
+            addMoves(pawn, oldSquare, newSquares, enemyPieces);
+            return;
+        }
+
+        while (newSquares != 0) {
+            int newSquare = Long.numberOfTrailingZeros(newSquares);
+            newSquares &= newSquares - 1;
+            boolean taking = (enemyPieces & (1L << newSquare)) != 0;
+            for (Piece newPiece : validPromotes) {
+                legalMoves.add(Move.pack(oldSquare, newSquare, pawn, Move.PROMOTING, newPiece, taking));
+            }
+        }
     }
 
-    // Helper function to determine if the squares between the rook and king while castling are empty and not attacked.
-    // If the castle is valid, create the corresponding move object. A complete array of the attacked squares has
-    // already been generated for us
-    private static Move verifyAndMakeCastleMove(ArrayList<BoardPosition> castlingSquares, Board board,
-                                                ArrayList<BoardPosition> attackedSquares,
-                                                BoardPosition oldKingPosition, BoardPosition newKingPosition,
-                                                BoardPosition oldRookPosition, BoardPosition newRookPosition) {
-        // Verify the castle is valid
-        for (BoardPosition position: castlingSquares) {
-            if (board.getPieceAtPosition(position) != null || attackedSquares.contains(position)) {
-                return null;
+    // Adds the castle with the rook in rookColumn if the king and rook are on their starting squares, every square
+    // between them is empty, and the king doesn't pass through or land on an attacked square. Only called when the
+    // castling status allows it and we aren't in check.
+    private void addCastleMoveIfValid(int row, int rookColumn, int newKingColumn, int newRookColumn) {
+        int kingSquare = Board.square(4, row);
+        int rookSquare = Board.square(rookColumn, row);
+        int newKingSquare = Board.square(newKingColumn, row);
+        if ((board.getBitboard(Piece.KING, turn) & (1L << kingSquare)) == 0
+                || (board.getBitboard(Piece.ROOK, turn) & (1L << rookSquare)) == 0
+                || (AttackTables.squaresBetween(kingSquare, rookSquare) & board.getOccupied()) != 0) {
+            return;
+        }
+
+        PlayerColour them = PlayerColour.getOtherColour(turn);
+        long kingPath = AttackTables.squaresBetween(kingSquare, newKingSquare) | (1L << newKingSquare);
+        while (kingPath != 0) {
+            int square = Long.numberOfTrailingZeros(kingPath);
+            kingPath &= kingPath - 1;
+            if (isSquareAttacked(board, square, them)) {
+                return;
             }
         }
 
-        // Generate the move
-        ColouredPiece king = board.getPieceAtPosition(oldKingPosition);
-        ColouredPiece rook = board.getPieceAtPosition(oldRookPosition);
-        try {
-            return new Move("Castling", king, newKingPosition, rook, newRookPosition);
-        } catch (InvalidMoveException e) {
-            e.printStackTrace();
-            return null;
+        legalMoves.add(Move.pack(kingSquare, newKingSquare, ColouredPiece.get(Piece.KING, turn), Move.CASTLING, null,
+                false));
+    }
+
+    // The square a pawn could move to by taking en passant after this move, or -1 if there isn't one. En passant is
+    // only possible straight after a pawn moves forward two squares.
+    private static int getEnPassantSquareAfter(int move) {
+        if (Move.getPiece(move) != Piece.PAWN || Math.abs(Move.getNewSquare(move) - Move.getOldSquare(move)) != 16) {
+            return -1;
         }
+        return (Move.getOldSquare(move) + Move.getNewSquare(move)) / 2;
     }
 
     // Will return if colour's king is in check
     private static boolean isKingInCheck(Board board, PlayerColour colour) {
-        for (ColouredPiece piece: board.getPieces(PlayerColour.getOtherColour(colour))) {
-            for (ColouredPiece attackedPiece: getAttackedPieces(board, piece)) {
-                if (attackedPiece.getPiece().equals(Piece.KING)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
-    // Will return the list of pieces attacked by this piece. Doesn't include enpessant for pawns.
-    private static ArrayList<ColouredPiece> getAttackedPieces(Board board, ColouredPiece piece) {
-        ArrayList<ColouredPiece> attackedPieces = new ArrayList<>();
-        for (ArrayList<RelativeBoardPosition> attackRoute : piece.getAttackRoutes()) {
-            for (RelativeBoardPosition relativePosition: attackRoute) {
-                try {
-                    BoardPosition actualPosition = board.getPiecesPosition(piece).addRelativePosition(relativePosition);
-                    ColouredPiece attackedPiece = board.getPieceAtPosition(actualPosition);
-                    if (attackedPiece != null) {
-                        // Once one position has a piece in it, the remainder of the positions in the attackroute are
-                        // not attacked
-                        if (!attackedPiece.getColour().equals(piece.getColour())) {
-                            attackedPieces.add(attackedPiece);
-                        }
-                        break;
-                    }
-                } catch (InvalidBoardPositionException e) {
-                    // The attack route is off the board. No need to check the rest
-                    break;
-                }
-            }
+        long king = board.getBitboard(Piece.KING, colour);
+        if (king == 0) {
+            return false;
         }
-        return attackedPieces;
-    }
-
-    // Will return the list of squares attacked by this piece. Used to check castling and useful in the future for
-    // non-pseudo move generation
-    private static ArrayList<BoardPosition> getAttackedSquares(Board board, ColouredPiece piece) {
-        ArrayList<BoardPosition> attackedSquares = new ArrayList<>();
-        for (ArrayList<RelativeBoardPosition> attackRoute : piece.getAttackRoutes()) {
-            for (RelativeBoardPosition relativePosition: attackRoute) {
-                try {
-                    BoardPosition actualPosition = board.getPiecesPosition(piece).addRelativePosition(relativePosition);
-                    ColouredPiece attackedPiece = board.getPieceAtPosition(actualPosition);
-                    if (attackedPiece != null) {
-                        // Once one position has a piece in it, the remainder of the positions in the attackroute are
-                        // not attacked
-                        if (!attackedPiece.getColour().equals(piece.getColour())) {
-                            attackedSquares.add(actualPosition);
-                        }
-                        break;
-                    }
-
-                    attackedSquares.add(actualPosition);
-
-                } catch (InvalidBoardPositionException e) {
-                    // The attack route is off the board. No need to check the rest
-                    break;
-                }
+        return isSquareAttacked(board, Long.numberOfTrailingZeros(king), PlayerColour.getOtherColour(colour));
+    }
+
+    // Will return if any of attackingColour's pieces attack the square
+    private static boolean isSquareAttacked(Board board, int square, PlayerColour attackingColour) {
+        return getAttackers(board, square, attackingColour, board.getOccupied()) != 0;
+    }
+
+    // Will return all of attackingColour's pieces that attack the square, with sliders blocked by the given occupancy
+    // rather than the board's (so moves can be tried without changing the board). Looks outwards from the square with
+    // each kind of attack and checks if it lands on an attacker of that kind.
+    private static long getAttackers(Board board, int square, PlayerColour attackingColour, long occupied) {
+        long queens = board.getBitboard(Piece.QUEEN, attackingColour);
+        PlayerColour defendingColour = PlayerColour.getOtherColour(attackingColour);
+        return (AttackTables.pawnAttacks(defendingColour, square) & board.getBitboard(Piece.PAWN, attackingColour))
+                | (AttackTables.knightAttacks(square) & board.getBitboard(Piece.KNIGHT, attackingColour))
+                | (AttackTables.kingAttacks(square) & board.getBitboard(Piece.KING, attackingColour))
+                | (AttackTables.bishopAttacks(square, occupied)
+                        & (board.getBitboard(Piece.BISHOP, attackingColour) | queens))
+                | (AttackTables.rookAttacks(square, occupied)
+                        & (board.getBitboard(Piece.ROOK, attackingColour) | queens));
+    }
+
+    // Will return colour's pieces which are the only piece between an enemy slider and colour's king on kingSquare
+    private static long getPinnedPieces(Board board, int kingSquare, PlayerColour colour) {
+        PlayerColour them = PlayerColour.getOtherColour(colour);
+        long queens = board.getBitboard(Piece.QUEEN, them);
+        // Enemy sliders that would attack the king if nothing was in the way
+        long snipers = (AttackTables.rookAttacks(kingSquare, 0) & (board.getBitboard(Piece.ROOK, them) | queens))
+                | (AttackTables.bishopAttacks(kingSquare, 0) & (board.getBitboard(Piece.BISHOP, them) | queens));
+        long pinned = 0;
+        while (snipers != 0) {
+            int sniperSquare = Long.numberOfTrailingZeros(snipers);
+            snipers &= snipers - 1;
+            long blockers = AttackTables.squaresBetween(kingSquare, sniperSquare) & board.getOccupied();
+            if (Long.bitCount(blockers) == 1) {
+                pinned |= blockers & board.getColourBitboard(colour);
             }
         }
-        return attackedSquares;
+        return pinned;
     }
 
-    // Will return any squares a piece can move to, including takes. Doesn't consider whether this will place it's own
-    // king in check. Doesn't include enpessant for pawns, but does include forward moves. Doesn't
+    // Will return any squares the piece on this square can move to, including takes. Doesn't consider whether this
+    // will place it's own king in check. Doesn't include enpessant for pawns, but does include forward moves. Doesn't
     // including castling. Does including moving pawns to the last rank.
-    private static ArrayList<BoardPosition> getValidMovePositions(Board board, ColouredPiece piece) {
-        ArrayList<BoardPosition> movePositions = new ArrayList<>();
+    private static long getValidMoveSquares(Board board, ColouredPiece piece, int square) {
+        long occupied = board.getOccupied();
+        long enemyPieces = board.getColourBitboard(PlayerColour.getOtherColour(piece.getColour()));
         // Need to manually do pawn movements cuz pawns are dumb
-        if (piece.getPiece().equals(Piece.PAWN)) {
+        if (piece.getPiece() == Piece.PAWN) {
+            long moveSquares = AttackTables.pawnAttacks(piece.getColour(), square) & enemyPieces;
             // Forward movements
-            BoardPosition forwardOne = null;
-            BoardPosition forwardTwo = null;
-            try {
-                if (piece.getColour().equals(PlayerColour.WHITE)) {
-                    forwardOne = board.getPiecesPosition(piece).addRelativePosition(new RelativeBoardPosition(0, 1));
-                    if (board.getPiecesPosition(piece).getRow() == 1) {
-                        forwardTwo = board.getPiecesPosition(piece).addRelativePosition(new RelativeBoardPosition(0, 2));
-                    }
-                } else {
-                    // Black
-                    forwardOne = board.getPiecesPosition(piece).addRelativePosition(new RelativeBoardPosition(0, -1));
-                    if (board.getPiecesPosition(piece).getRow() == 6) {
-                        forwardTwo = board.getPiecesPosition(piece).addRelativePosition(new RelativeBoardPosition(0, -2));
-                    }
-                }
-            } catch (InvalidBoardPositionException e) {
-                // This should never happen
-                System.out.println("Something's wrong!");
-                return null;
-            }
-            if (board.getPieceAtPosition(forwardOne) == null) {
-                movePositions.add(forwardOne);
-                if (forwardTwo != null && board.getPieceAtPosition(forwardTwo) == null) {
-                    movePositions.add(forwardTwo);
-                }
-            }
-
-            // Diagonal takes
-            ArrayList<BoardPosition> diagonalTakes = getAttackedSquares(board, piece);
-            for (BoardPosition position: diagonalTakes) {
-                if (board.getPieceAtPosition(position) != null && board.getPieceAtPosition(position).getColour()
-                        .equals(PlayerColour.getOtherColour(piece.getColour()))) {
-                    movePositions.add(position);
+            int forward = piece.getColour() == PlayerColour.WHITE ? 8 : -8;
+            int startRow = piece.getColour() == PlayerColour.WHITE ? 1 : 6;
+            long forwardOne = 1L << (square + forward);
+            if ((occupied & forwardOne) == 0) {
+                moveSquares |= forwardOne;
+                long forwardTwo = 1L << (square + 2 * forward);
+                if (square / 8 == startRow && (occupied & forwardTwo) == 0) {
+                    moveSquares |= forwardTwo;
                 }
             }
-        } else {
-            // Valid move positions are the same as attacked squares except for pawns
-            movePositions = getAttackedSquares(board, piece);
+            return moveSquares;
         }
-        return movePositions;
+        // Valid move squares are the same as attacked squares except for pawns
+        return AttackTables.attacks(piece.getPiece(), piece.getColour(), square, occupied)
+                & ~board.getColourBitboard(piece.getColour());
     }
 
     private void changeTurn() {
@@ -744,175 +679,55 @@ public class State {
         return gameStatus;
     }
 
+    // Creates a Move object for every move made so far
     public ArrayList<Move> getMoveList() {
-        return moveList;
+        ArrayList<Move> moves = new ArrayList<>(moveHistory.size());
+        for (int i = 0; i < moveHistory.size(); i++) {
+            moves.add(Move.fromPacked(moveHistory.get(i)));
+        }
+        return moves;
     }
 
     public State clone() {
-        return new State(board, startState, turn, moveList, whiteCastlingStatus, blackCastlingStatus, gameStatus, allLegalMoves);
-    }
-
-    // Should only be used by executeMove
-    private void setBoard(Board board) {
-        this.board = board;
+        return new State(board, turn, moveHistory, whiteCastlingStatus, blackCastlingStatus, enPassantSquare, hash,
+                repetitionKeys, repetitionKeysSize, repetitionStart, gameStatus, legalMoves);
     }
 
+    // Reads a move as castling ("O-O" or "O-O-O") or as the old and new squares, followed by the piece to promote to
+    // for a promotion (e.g. "e2e4", "e7e8Q"). Anything after that is ignored, so en passant can be written as "e5d6ep".
     public Move getMoveFromString(String stringMove) throws InvalidMoveException {
-        Move move = null;
-        if (turn == PlayerColour.WHITE) {
-            // Castling
-            if (stringMove.equals("O-O")) {
-                try {
-                    ColouredPiece king = board.getPieceAtPosition(new BoardPosition(4, 0));
-                    ColouredPiece rook = board.getPieceAtPosition(new BoardPosition(7, 0));
-                    move = new Move("Castling", king, new BoardPosition(6, 0), rook, new BoardPosition(5, 0));
-                } catch (InvalidBoardPositionException e) {
-                    // This should never happen
-                    System.out.println("Something's wrong");
-                }
-            } else if (stringMove.equals("O-O-O")) {
-                try {
-                    ColouredPiece king = board.getPieceAtPosition(new BoardPosition(4, 0));
-                    ColouredPiece rook = board.getPieceAtPosition(new BoardPosition(0, 0));
-                    move = new Move("Castling", king, new BoardPosition(2, 0), rook, new BoardPosition(3, 0));
-                } catch (InvalidBoardPositionException e) {
-                    // This should never happen
-                    System.out.println("Something's wrong");
-                }
-            } else if (stringMove.length() > 4) {
-                if (stringMove.length() == 5) {
-                    // Promoting
-                    try {
-                        BoardPosition oldPosition = new BoardPosition(stringMove.substring(0, 2));
-                        BoardPosition newPosition = new BoardPosition(stringMove.substring(2, 4));
-                        ColouredPiece pawn = board.getPieceAtPosition(oldPosition);
-                        boolean taking = board.getPieceAtPosition(newPosition) != null;
-                        ColouredPiece promotedTo;
-                        switch (stringMove.substring(5)) {
-                            case "N":
-                                promotedTo = new ColouredPiece(Piece.KNIGHT, PlayerColour.WHITE);
-                                break;
-                            case "B":
-                                promotedTo = new ColouredPiece(Piece.BISHOP, PlayerColour.WHITE);
-                                break;
-                            case "R":
-                                promotedTo = new ColouredPiece(Piece.ROOK, PlayerColour.WHITE);
-                                break;
-                            case "Q":
-                                promotedTo = new ColouredPiece(Piece.QUEEN, PlayerColour.WHITE);
-                                break;
-                            default:
-                                throw new InvalidMoveException("Invalid move!");
-                        }
-                        move = new Move("Promoting", pawn, newPosition, stringMove.substring(0, 2), taking, promotedTo);
-                    } catch (InvalidBoardPositionException e) {
-                        throw new InvalidMoveException("Invalid move!");
-                    }
-                } else {
-                    // En passant
-                    try {
-                        BoardPosition oldPosition = new BoardPosition(stringMove.substring(0, 2));
-                        BoardPosition newPosition = new BoardPosition(stringMove.substring(2, 4));
-                        BoardPosition takePosition = newPosition.addRelativePosition(new RelativeBoardPosition(0, -1));
-                        ColouredPiece pawn = board.getPieceAtPosition(oldPosition);
-
-                        move = new Move("En pessant", pawn, newPosition, stringMove.substring(0, 2), takePosition);
-                    } catch (InvalidBoardPositionException e) {
-                        throw new InvalidMoveException("Invalid move!");
-                    }
-                }
-            } else {
-                // Regular move
-                try {
-                    BoardPosition oldPosition = new BoardPosition(stringMove.substring(0, 2));
-                    BoardPosition newPosition = new BoardPosition(stringMove.substring(2, 4));
-                    ColouredPiece piece = board.getPieceAtPosition(oldPosition);
-                    boolean taking = board.getPieceAtPosition(newPosition) != null;
-                    move = new Move(piece, oldPosition, newPosition, stringMove.substring(0, 2), taking);
-                } catch (InvalidBoardPositionException e) {
-                    throw new InvalidMoveException("Invalid move!");
+        for (int i = 0; i < legalMoves.size(); i++) {
+            int move = legalMoves.get(i);
+            if (Move.getType(move) == Move.CASTLING) {
+                if (stringMove.equals(Move.getNewSquare(move) % 8 == 6 ? "O-O" : "O-O-O")) {
+                    return Move.fromPacked(move);
                 }
+                continue;
             }
-        } else {
-            // Black
-            // Castling
-            if (stringMove.equals("O-O")) {
-                try {
-                    ColouredPiece king = board.getPieceAtPosition(new BoardPosition(4, 7));
-                    ColouredPiece rook = board.getPieceAtPosition(new BoardPosition(7, 7));
-                    move = new Move("Castling", king, new BoardPosition(6, 7), rook, new BoardPosition(5, 7));
-                } catch (InvalidBoardPositionException e) {
-                    // This should never happen
-                    System.out.println("Something's wrong");
-                }
-            } else if (stringMove.equals("O-O-O")) {
-                try {
-                    ColouredPiece king = board.getPieceAtPosition(new BoardPosition(4, 7));
-                    ColouredPiece rook = board.getPieceAtPosition(new BoardPosition(0, 7));
-                    move = new Move("Castling", king, new BoardPosition(2, 7), rook, new BoardPosition(3, 7));
-                } catch (InvalidBoardPositionException e) {
-                    // This should never happen
-                    System.out.println("Something's wrong");
-                }
-            } else if (stringMove.length() > 4) {
-                if (stringMove.length() == 5) {
-                    // Promoting
-                    try {
-                        BoardPosition oldPosition = new BoardPosition(stringMove.substring(0, 2));
-                        BoardPosition newPosition = new BoardPosition(stringMove.substring(2, 4));
-                        ColouredPiece pawn = board.getPieceAtPosition(oldPosition);
-                        boolean taking = board.getPieceAtPosition(newPosition) != null;
-                        ColouredPiece promotedTo;
-                        switch (stringMove.substring(5)) {
-                            case "N":
-                                promotedTo = new ColouredPiece(Piece.KNIGHT, PlayerColour.BLACK);
-                                break;
-                            case "B":
-                                promotedTo = new ColouredPiece(Piece.BISHOP, PlayerColour.BLACK);
-                                break;
-                            case "R":
-                                promotedTo = new ColouredPiece(Piece.ROOK, PlayerColour.BLACK);
-                                break;
-                            case "Q":
-                                promotedTo = new ColouredPiece(Piece.QUEEN, PlayerColour.BLACK);
-                                break;
-                            default:
-                                throw new InvalidMoveException("Invalid move!");
-                        }
-                        move = new Move("Promoting", pawn, newPosition, stringMove.substring(0, 2), taking, promotedTo);
-                    } catch (InvalidBoardPositionException e) {
-                        throw new InvalidMoveException("Invalid move!");
-                    }
-                } else {
-                    // En passant
-                    try {
-                        BoardPosition oldPosition = new BoardPosition(stringMove.substring(0, 2));
-                        BoardPosition newPosition = new BoardPosition(stringMove.substring(2, 4));
-                        BoardPosition takePosition = newPosition.addRelativePosition(new RelativeBoardPosition(0, 1));
-                        ColouredPiece pawn = board.getPieceAtPosition(oldPosition);
-
-                        move = new Move("En pessant", pawn, newPosition, stringMove.substring(0, 2), takePosition);
-                    } catch (InvalidBoardPositionException e) {
-                        throw new InvalidMoveException("Invalid move!");
-                    }
-                }
-            } else {
-                // Regular move
-                try {
-                    BoardPosition oldPosition = new BoardPosition(stringMove.substring(0, 2));
-                    BoardPosition newPosition = new BoardPosition(stringMove.substring(2, 4));
-                    ColouredPiece piece = board.getPieceAtPosition(oldPosition);
-                    boolean taking = board.getPieceAtPosition(newPosition) != null;
-                    move = new Move(piece, oldPosition, newPosition, stringMove.substring(0, 2), taking);
-                } catch (InvalidBoardPositionException e) {
-                    throw new InvalidMoveException("Invalid move!");
-                }
+            String squares = BoardPosition.fromSquareIndex(Move.getOldSquare(move)).toString()
+                    + BoardPosition.fromSquareIndex(Move.getNewSquare(move));
+            if (Move.getType(move) == Move.PROMOTING) {
+                squares += Move.getPromotionPiece(move).firstLetter;
+            }
+            if (stringMove.startsWith(squares)) {
+                return Move.fromPacked(move);
             }
         }
-        if (getAllLegalMoves().contains(move)) {
-            return move;
-        } else {
-            throw new InvalidMoveException("Invalid move!");
-        }
+        throw new InvalidMoveException("Invalid move!");
+    }
+
+    // What makeMove needs to remember to undo a move. Everything else can be worked out from the move itself.
+    private static class UndoEntry {
+        // -1 and null if the move didn't take anything
+        private int takeSquare;
+        private ColouredPiece takenPiece;
+
+        private int whiteCastlingStatus;
+        private int blackCastlingStatus;
+        private int enPassantSquare;
+        private long hash;
+        private int repetitionStart;
+        private int gameStatus;
+        private MoveList legalMoves;
     }
 }
@@ -0,0 +1,56 @@
+package chessboard;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for Zobrist hashing. A position's key is the XOR of the keys for each piece on its square, the player to
+ * move, both players' castling statuses and the en passant file, so it can be updated piece by piece as moves are made
+ * rather than recalculated from the whole board.
+ */
+public class Zobrist {
+    // Indexed by Board.getBitboardIndex then square
+    private static final long[][] pieceKeys = new long[12][64];
+
+    private static final long blackToMoveKey;
+
+    // Indexed by colour ordinal then castling status (see State)
+    private static final long[][] castlingKeys = new long[2][4];
+
+    // Indexed by column
+    private static final long[] enPassantKeys = new long[8];
+
+    public static long pieceKey(int bitboardIndex, int square) {
+        return pieceKeys[bitboardIndex][square];
+    }
+
+    public static long turnKey(PlayerColour turn) {
+        return turn == PlayerColour.BLACK ? blackToMoveKey : 0;
+    }
+
+    public static long castlingKey(PlayerColour colour, int castlingStatus) {
+        return castlingKeys[colour.ordinal()][castlingStatus];
+    }
+
+    public static long enPassantKey(int column) {
+        return enPassantKeys[column];
+    }
+
+    static {
+        // Fixed seed so keys (and so anything derived from them) are the same every run
+        SplittableRandom random = new SplittableRandom(0x5DEECE66DL);
+        for (int i = 0; i < 12; i++) {
+            for (int square = 0; square < 64; square++) {
+                pieceKeys[i][square] = random.nextLong();
+            }
+        }
+        blackToMoveKey = random.nextLong();
+        for (int colour = 0; colour < 2; colour++) {
+            for (int status = 0; status < 4; status++) {
+                castlingKeys[colour][status] = random.nextLong();
+            }
+        }
+        for (int column = 0; column < 8; column++) {
+            enPassantKeys[column] = random.nextLong();
+        }
+    }
+}
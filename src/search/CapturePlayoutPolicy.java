@@ -0,0 +1,60 @@
+package search;
+
+import chessboard.Board;
+import chessboard.Move;
+import chessboard.State;
+
+/**
+ * Chooses captures and promotions more often than other moves, so playouts look more like real games and finish
+ * sooner. Captures are weighted by the most valuable victim and then the least valuable attacker (MVV-LVA), so taking
+ * a queen with a pawn is far more likely than taking a pawn with a queen. Every move still has some chance.
+ */
+public class CapturePlayoutPolicy implements PlayoutPolicy {
+    // Rough value of each piece in pawns, indexed by Piece ordinal. Kings are never taken, and are the cheapest
+    // attacker since they can only take undefended pieces.
+    private static final int[] VALUES = {1, 3, 3, 5, 9, 0};
+
+    // The weight of a move that doesn't take or promote
+    private static final int QUIET_WEIGHT = 1;
+
+    // Added to a capture's weight, so even a capture by a queen is more likely than a quiet move
+    private static final int CAPTURE_WEIGHT = 2;
+
+    // How much a pawn of value taken (or gained by promoting) adds to a move's weight
+    private static final int VALUE_WEIGHT = 10;
+
+    // The weights are worked out twice, once to add them up and once to find the chosen move, so nothing needs to be
+    // stored between the two
+    @Override
+    public int chooseMove(State state) {
+        Board board = state.getBoard();
+        int moveCount = state.getLegalMoveCount();
+        int totalWeight = 0;
+        for (int i = 0; i < moveCount; i++) {
+            totalWeight += weight(board, state.getLegalMove(i));
+        }
+
+        int choice = SearchRandom.nextInt(0, totalWeight);
+        for (int i = 0; i < moveCount - 1; i++) {
+            choice -= weight(board, state.getLegalMove(i));
+            if (choice < 0) {
+                return state.getLegalMove(i);
+            }
+        }
+        return state.getLegalMove(moveCount - 1);
+    }
+
+    // How likely the move is to be chosen, relative to the other legal moves. Also used for the priors of
+    // PUCTSelectionPolicy.
+    static int weight(Board board, int move) {
+        int weight = QUIET_WEIGHT;
+        if (Move.isTaking(move)) {
+            int victim = board.getPieceAtSquare(Move.getTakeSquare(move)).getPiece().ordinal();
+            weight += CAPTURE_WEIGHT + VALUE_WEIGHT * VALUES[victim] - VALUES[Move.getPiece(move).ordinal()];
+        }
+        if (Move.getType(move) == Move.PROMOTING) {
+            weight += VALUE_WEIGHT * (VALUES[Move.getPromotionPiece(move).ordinal()] - VALUES[0]);
+        }
+        return weight;
+    }
+}
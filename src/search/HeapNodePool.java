@@ -0,0 +1,232 @@
+package search;
+
+import chessboard.State;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stores an MCTS tree on the Java heap as parallel arrays, one entry per node. The arrays are split into chunks that
+ * are only allocated when needed, so the tree can grow without ever copying what's already there. The visits and
+ * reward are updated without locking, and a node's children are only published once they're all filled in.
+ */
+public class HeapNodePool implements NodePool {
+    // Each array is indexed by chunk, then by the node's index within the chunk
+    private final AtomicIntegerArray[] visits = new AtomicIntegerArray[MAX_CHUNKS];
+    // The total reward of each node, stored as the bits of a double so it can be added to with compare and set
+    private final AtomicLongArray[] rewardBits = new AtomicLongArray[MAX_CHUNKS];
+    // The number of children, or EXPANDING while a thread is creating them
+    private final AtomicIntegerArray[] childCounts = new AtomicIntegerArray[MAX_CHUNKS];
+    private final int[][] firstChildren = new int[MAX_CHUNKS][];
+    // The move from the parent to the node, packed into an int (see chessboard.Move.pack)
+    private final int[][] moves = new int[MAX_CHUNKS][];
+    private final AtomicLongArray[] keys = new AtomicLongArray[MAX_CHUNKS];
+    private final int[][] links = new int[MAX_CHUNKS][];
+    private final int[][] proofs = new int[MAX_CHUNKS][];
+    private final AtomicIntegerArray[] amafVisits = new AtomicIntegerArray[MAX_CHUNKS];
+    private final AtomicLongArray[] amafRewardBits = new AtomicLongArray[MAX_CHUNKS];
+
+    private final State rootState;
+
+    private final NodeAllocator allocator = new NodeAllocator();
+
+    public HeapNodePool(State rootState) {
+        allocate(1);
+        this.rootState = rootState;
+    }
+
+    @Override
+    public synchronized int allocate(int count) {
+        int first = allocator.allocate(count);
+        int chunk = first >>> CHUNK_BITS;
+        if (visits[chunk] == null) {
+            rewardBits[chunk] = new AtomicLongArray(CHUNK_SIZE);
+            childCounts[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+            firstChildren[chunk] = new int[CHUNK_SIZE];
+            moves[chunk] = new int[CHUNK_SIZE];
+            keys[chunk] = new AtomicLongArray(CHUNK_SIZE);
+            links[chunk] = new int[CHUNK_SIZE];
+            proofs[chunk] = new int[CHUNK_SIZE];
+            amafVisits[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+            amafRewardBits[chunk] = new AtomicLongArray(CHUNK_SIZE);
+            visits[chunk] = new AtomicIntegerArray(CHUNK_SIZE);
+        }
+        return first;
+    }
+
+    @Override
+    public synchronized void free(int firstNode, int count) {
+        for (int node = firstNode; node < firstNode + count; node++) {
+            clearNode(node);
+        }
+        allocator.free(firstNode, count);
+    }
+
+    @Override
+    public synchronized void compact() {
+        allocator.compact(this, this::moveNode);
+    }
+
+    // Copies everything about a node to another index and clears the old one
+    private void moveNode(int from, int to) {
+        int fromChunk = from >>> CHUNK_BITS;
+        int fromIndex = from & CHUNK_MASK;
+        int toChunk = to >>> CHUNK_BITS;
+        int toIndex = to & CHUNK_MASK;
+        visits[toChunk].set(toIndex, visits[fromChunk].get(fromIndex));
+        rewardBits[toChunk].set(toIndex, rewardBits[fromChunk].get(fromIndex));
+        childCounts[toChunk].set(toIndex, childCounts[fromChunk].get(fromIndex));
+        firstChildren[toChunk][toIndex] = firstChildren[fromChunk][fromIndex];
+        moves[toChunk][toIndex] = moves[fromChunk][fromIndex];
+        keys[toChunk].set(toIndex, keys[fromChunk].get(fromIndex));
+        links[toChunk][toIndex] = links[fromChunk][fromIndex];
+        proofs[toChunk][toIndex] = proofs[fromChunk][fromIndex];
+        amafVisits[toChunk].set(toIndex, amafVisits[fromChunk].get(fromIndex));
+        amafRewardBits[toChunk].set(toIndex, amafRewardBits[fromChunk].get(fromIndex));
+        clearNode(from);
+    }
+
+    private void clearNode(int node) {
+        int chunk = node >>> CHUNK_BITS;
+        int i = node & CHUNK_MASK;
+        visits[chunk].set(i, 0);
+        rewardBits[chunk].set(i, 0);
+        childCounts[chunk].set(i, NOT_EXPANDED);
+        firstChildren[chunk][i] = 0;
+        moves[chunk][i] = 0;
+        keys[chunk].set(i, 0);
+        links[chunk][i] = 0;
+        proofs[chunk][i] = UNPROVEN;
+        amafVisits[chunk].set(i, 0);
+        amafRewardBits[chunk].set(i, 0);
+    }
+
+    @Override
+    public int getNodeCount() {
+        return allocator.getNodeCount();
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return allocator.getSize();
+    }
+
+    @Override
+    public void addVisits(int node, int count) {
+        visits[node >>> CHUNK_BITS].addAndGet(node & CHUNK_MASK, count);
+    }
+
+    @Override
+    public void addReward(int node, double result) {
+        addDouble(rewardBits[node >>> CHUNK_BITS], node & CHUNK_MASK, result);
+    }
+
+    @Override
+    public void addAmafResult(int node, int visits, double result) {
+        amafVisits[node >>> CHUNK_BITS].addAndGet(node & CHUNK_MASK, visits);
+        addDouble(amafRewardBits[node >>> CHUNK_BITS], node & CHUNK_MASK, result);
+    }
+
+    // Adds to a double stored as its bits
+    private static void addDouble(AtomicLongArray chunk, int i, double value) {
+        long oldBits;
+        long newBits;
+        do {
+            oldBits = chunk.get(i);
+            newBits = Double.doubleToRawLongBits(Double.longBitsToDouble(oldBits) + value);
+        } while (!chunk.compareAndSet(i, oldBits, newBits));
+    }
+
+    @Override
+    public boolean claimExpansion(int node) {
+        return childCounts[node >>> CHUNK_BITS].compareAndSet(node & CHUNK_MASK, NOT_EXPANDED, EXPANDING);
+    }
+
+    @Override
+    public void setChildren(int node, int firstChild, int childCount) {
+        firstChildren[node >>> CHUNK_BITS][node & CHUNK_MASK] = firstChild;
+        // Other threads only look at the first child after seeing the count, so this must come last
+        childCounts[node >>> CHUNK_BITS].set(node & CHUNK_MASK, childCount);
+    }
+
+    @Override
+    public void clearChildren(int node) {
+        childCounts[node >>> CHUNK_BITS].set(node & CHUNK_MASK, NOT_EXPANDED);
+        firstChildren[node >>> CHUNK_BITS][node & CHUNK_MASK] = 0;
+    }
+
+    @Override
+    public void setMove(int node, int move) {
+        moves[node >>> CHUNK_BITS][node & CHUNK_MASK] = move;
+    }
+
+    @Override
+    public int getVisits(int node) {
+        return visits[node >>> CHUNK_BITS].get(node & CHUNK_MASK);
+    }
+
+    @Override
+    public double getReward(int node) {
+        return Double.longBitsToDouble(rewardBits[node >>> CHUNK_BITS].get(node & CHUNK_MASK));
+    }
+
+    @Override
+    public int getAmafVisits(int node) {
+        return amafVisits[node >>> CHUNK_BITS].get(node & CHUNK_MASK);
+    }
+
+    @Override
+    public double getAmafReward(int node) {
+        return Double.longBitsToDouble(amafRewardBits[node >>> CHUNK_BITS].get(node & CHUNK_MASK));
+    }
+
+    @Override
+    public int getChildCount(int node) {
+        return Math.max(0, childCounts[node >>> CHUNK_BITS].get(node & CHUNK_MASK));
+    }
+
+    @Override
+    public int getFirstChild(int node) {
+        return firstChildren[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    @Override
+    public int getMove(int node) {
+        return moves[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    @Override
+    public void setKey(int node, long key) {
+        keys[node >>> CHUNK_BITS].set(node & CHUNK_MASK, key);
+    }
+
+    @Override
+    public long getKey(int node) {
+        return keys[node >>> CHUNK_BITS].get(node & CHUNK_MASK);
+    }
+
+    @Override
+    public void setLink(int node, int link) {
+        links[node >>> CHUNK_BITS][node & CHUNK_MASK] = link;
+    }
+
+    @Override
+    public int getLink(int node) {
+        return links[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    @Override
+    public void setProof(int node, int proof) {
+        proofs[node >>> CHUNK_BITS][node & CHUNK_MASK] = proof;
+    }
+
+    @Override
+    public int getProof(int node) {
+        return proofs[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    @Override
+    public State getRootState() {
+        return rootState;
+    }
+}
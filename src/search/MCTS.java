@@ -1,141 +1,1021 @@
 package search;
 
+import chessboard.Board;
 import chessboard.Move;
 import chessboard.PlayerColour;
 import chessboard.State;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class MCTS {
 
-    private Node root;
+    // When a tree goes over its node limit, it's pruned down to this fraction of the limit so it doesn't need pruning
+    // again straight away
+    private static final double PRUNE_TO = 0.75;
 
-    private int timeLimit;
+    // How far ahead, in centipawns, a playout cut off by the playout depth has to be to score 10 times as much as the
+    // other side (see evaluationResult)
+    private static final double EVALUATION_SCALE = 400;
+
+    // With progressive widening, a node with n visits lets selection choose from its first
+    // WIDENING_MIN_CHILDREN + sqrt(n) children
+    private static final int WIDENING_MIN_CHILDREN = 2;
+
+    // How many iterations each thread runs between looking at the clock, and between checks of whether the search can
+    // stop early. Should be a multiple of TIME_CHECK_INTERVAL.
+    private static final int TIME_CHECK_INTERVAL = 16;
+    private static final int SMART_STOP_INTERVAL = 64;
+
+    // Added to the name of a tree's file for the file its replacement goes in, see createReplacementPool
+    private static final String NEXT_TREE_FILE_SUFFIX = ".next";
+
+    // One tree per pool, each with its root at NodePool.ROOT. There's only one tree unless searching with
+    // ParallelMode.ROOT.
+    private NodePool[] trees;
+
+    // The transposition table of each tree, or nulls if there isn't one
+    private TranspositionTable[] tables;
+
+    // Only used when there's a node limit, see search
+    private ReentrantReadWriteLock[] treeLocks;
+
+    private TimeManager timeManager;
 
     private PlayerColour ourColour;
 
+    private SearchSettings settings;
+
+    // When the current search started (System.nanoTime) and how many visits the roots had then, for estimating how
+    // many more they'll get
+    private long searchStartTime;
+    private int searchStartVisits;
+
+    // Set by any thread that finds the best move can no longer change, which stops all of them
+    private volatile boolean stopped;
+
     public MCTS(State startState, int timeLimit, PlayerColour ourColour) {
-        root = new Node(startState);
-        this.timeLimit = timeLimit;
+        this(startState, timeLimit, ourColour, new SearchSettings());
+    }
+
+    public MCTS(State startState, int timeLimit, PlayerColour ourColour, SearchSettings settings) {
+        this.timeManager = TimeManager.fixed(timeLimit);
         this.ourColour = ourColour;
+        this.settings = settings;
+        trees = new NodePool[settings.getParallelMode() == ParallelMode.ROOT ? settings.getThreads() : 1];
+        tables = new TranspositionTable[trees.length];
+        treeLocks = new ReentrantReadWriteLock[trees.length];
+        for (int i = 0; i < trees.length; i++) {
+            trees[i] = createNodePool(startState, getTreeFile(i));
+            tables[i] = createTable();
+            treeLocks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    // Carries on searching a tree that already exists, such as one loaded with OffHeapNodePool.load. Every thread
+    // searches this tree, whatever the parallel mode. A tree mapped to a file goes on being kept in files as the search
+    // moves on (see playMove), so a loaded checkpoint's file is reused.
+    public MCTS(NodePool tree, int timeLimit, PlayerColour ourColour, SearchSettings settings) {
+        this.timeManager = TimeManager.fixed(timeLimit);
+        this.ourColour = ourColour;
+        this.settings = settings;
+        trees = new NodePool[] {tree};
+        tables = new TranspositionTable[] {createTable()};
+        if (tables[0] != null) {
+            addToTable(tree, NodePool.ROOT, tables[0]);
+        }
+        treeLocks = new ReentrantReadWriteLock[] {new ReentrantReadWriteLock()};
+    }
+
+    // Searches for the same time every move
+    public void setTimeLimit(int timeLimit) {
+        this.timeManager = TimeManager.fixed(timeLimit);
+    }
+
+    // Decides how long each search takes from the clock instead, see TimeManager
+    public void setTimeManager(TimeManager timeManager) {
+        if (timeManager == null) {
+            throw new IllegalArgumentException("timeManager can't be null");
+        }
+        this.timeManager = timeManager;
+    }
+
+    /**
+     * Moves the root of the search down to the position after the move, keeping everything already searched below
+     * it. If the search never got as far as that move, it starts again from the new position. Call this for our
+     * move and the opponent's move so the search carries on from the current position.
+     *
+     * The kept subtree is copied into a new tree stored the same way as the old one, which is then closed. A tree
+     * mapped to a file is copied into a file next to it, and the two files take turns from one move to the next.
+     *
+     * @param move the move made from the current root.
+     */
+    public void playMove(Move move) {
+        int packedMove = move.toPacked();
+        for (int i = 0; i < trees.length; i++) {
+            NodePool tree = trees[i];
+            int newRoot = -1;
+            int firstChild = tree.getFirstChild(NodePool.ROOT);
+            for (int child = firstChild; child < firstChild + tree.getChildCount(NodePool.ROOT); child++) {
+                if (tree.getMove(child) == packedMove) {
+                    newRoot = child;
+                    break;
+                }
+            }
+            trees[i] = createReplacementPool(tree, tree.getRootState().executeMove(packedMove));
+            // The table's entries point into the old tree, but the table itself is reused
+            if (tables[i] != null) {
+                tables[i].clear();
+            }
+            if (newRoot != -1) {
+                copySubtree(tree, newRoot, trees[i], NodePool.ROOT);
+                if (tables[i] != null) {
+                    addToTable(trees[i], NodePool.ROOT, tables[i]);
+                }
+            }
+            closeNodePool(tree);
+        }
+    }
+
+    /**
+     * Writes the tree to a file, so the search can be carried on later by loading it with OffHeapNodePool.load. Only
+     * a single tree stored off the heap can be checkpointed. Must not be called during getBestMove.
+     *
+     * @param file where to write the checkpoint.
+     *
+     * @throws IOException if the file can't be written.
+     */
+    public void checkpoint(Path file) throws IOException {
+        if (trees.length != 1 || !(trees[0] instanceof OffHeapNodePool)) {
+            throw new IllegalStateException("Only a single off-heap tree can be checkpointed");
+        }
+        ((OffHeapNodePool) trees[0]).checkpoint(file);
+    }
+
+    // The file the settings give the tree with this number, or null if the trees aren't kept in files
+    private Path getTreeFile(int tree) {
+        Path treeFile = settings.getTreeFile();
+        if (treeFile == null || tree == 0) {
+            return treeFile;
+        }
+        return treeFile.resolveSibling(treeFile.getFileName() + "." + tree);
+    }
+
+    // An empty tree from the state, mapped to the file if there is one, or otherwise stored wherever the settings say
+    private NodePool createNodePool(State rootState, Path file) {
+        if (file == null && !settings.isOffHeapTree()) {
+            return new HeapNodePool(rootState);
+        }
+        return createOffHeapPool(rootState, file);
+    }
+
+    // An empty tree from the state off the heap, mapped to the file, or to a temporary file if it's null
+    private static NodePool createOffHeapPool(State rootState, Path file) {
+        try {
+            return file == null ? new OffHeapNodePool(rootState) : new OffHeapNodePool(rootState, file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't create the tree's file", e);
+        }
+    }
+
+    // An empty tree from the state to replace the old tree, stored the same way. A mapped tree's replacement can't go
+    // in the same file, since the old tree is still being copied from it, so it goes in the other of the tree's two
+    // files.
+    private NodePool createReplacementPool(NodePool oldTree, State rootState) {
+        if (!(oldTree instanceof OffHeapNodePool)) {
+            return new HeapNodePool(rootState);
+        }
+        Path oldFile = ((OffHeapNodePool) oldTree).getFile();
+        if (oldFile == null) {
+            return createOffHeapPool(rootState, null);
+        }
+        String name = oldFile.getFileName().toString();
+        String nextName = name.endsWith(NEXT_TREE_FILE_SUFFIX)
+                ? name.substring(0, name.length() - NEXT_TREE_FILE_SUFFIX.length())
+                : name + NEXT_TREE_FILE_SUFFIX;
+        return createOffHeapPool(rootState, oldFile.resolveSibling(nextName));
+    }
+
+    // Closes a tree that has been replaced. A temporary file is deleted, and any other file is left to be reused by the
+    // next replacement.
+    private static void closeNodePool(NodePool tree) {
+        if (!(tree instanceof OffHeapNodePool)) {
+            return;
+        }
+        try {
+            ((OffHeapNodePool) tree).close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't close the replaced tree's file", e);
+        }
+    }
+
+    // Each tree's share of the transposition table entries, or null if there's no table
+    private TranspositionTable createTable() {
+        int size = settings.getTranspositionTableSize() / trees.length;
+        return size == 0 ? null : new TranspositionTable(size);
+    }
+
+    // Copies node's stats and everything below it onto copyNode in the copy, so a subtree can be kept when the rest of
+    // its tree is thrown away. Links aren't copied since the nodes they point to move, but their keys are, so they're
+    // found again the next time they're searched.
+    private static void copySubtree(NodePool tree, int node, NodePool copy, int copyNode) {
+        copy.addVisits(copyNode, tree.getVisits(node));
+        copy.addReward(copyNode, tree.getReward(node));
+        copy.setKey(copyNode, tree.getKey(node));
+        copy.setProof(copyNode, tree.getProof(node));
+        copy.addAmafResult(copyNode, tree.getAmafVisits(node), tree.getAmafReward(node));
+        int childCount = tree.getChildCount(node);
+        if (childCount == 0) {
+            return;
+        }
+        int firstChild = tree.getFirstChild(node);
+        int copyFirstChild = copy.allocate(childCount);
+        for (int i = 0; i < childCount; i++) {
+            copy.setMove(copyFirstChild + i, tree.getMove(firstChild + i));
+            copySubtree(tree, firstChild + i, copy, copyFirstChild + i);
+        }
+        copy.claimExpansion(copyNode);
+        copy.setChildren(copyNode, copyFirstChild, childCount);
+    }
+
+    // Puts every expanded node with a key in this subtree in the table, for a tree that didn't have one
+    private static void addToTable(NodePool tree, int node, TranspositionTable table) {
+        int childCount = tree.getChildCount(node);
+        if (childCount == 0) {
+            return;
+        }
+        if (tree.getKey(node) != 0) {
+            table.put(tree.getKey(node), node);
+        }
+        int firstChild = tree.getFirstChild(node);
+        for (int child = firstChild; child < firstChild + childCount; child++) {
+            addToTable(tree, child, table);
+        }
     }
 
     /**
-     * Executes the MCTS search. Takes slightly longer than timeLimit. Will return the approximately
-     * best Move object to perform.
+     * Executes the MCTS search. Takes about as long as the time manager allows, unless the best move is found sooner
+     * (see SearchSettings.setSmartStop). Will return the approximately best Move object to perform. With more than one
+     * thread, either every thread searches the same tree or each thread searches its own tree, depending on the
+     * parallel mode.
      *
      * @return the best Move object from the startState.
      */
     public Move getBestMove() {
-        long startTime = System.currentTimeMillis();
+        searchStartTime = System.nanoTime();
+        timeManager.start(searchStartTime);
+        searchStartVisits = getTotalRootVisits();
+        stopped = false;
 
-        while(System.currentTimeMillis() < startTime + timeLimit) {
-            Node newNode = selectAndExpandNewNode();
-            double playoutResult = simulatePlayout(newNode);
-            backPropagateResult(newNode, playoutResult);
+        // This thread searches too, alongside threads - 1 others
+        ArrayList<FutureTask<Void>> workers = new ArrayList<>(settings.getThreads() - 1);
+        for (int i = 1; i < settings.getThreads(); i++) {
+            int tree = i % trees.length;
+            int thread = i;
+            FutureTask<Void> worker = new FutureTask<>(() -> searchOrStop(thread, tree), null);
+            workers.add(worker);
+            new Thread(worker, "MCTS worker " + thread).start();
+        }
+        searchOrStop(0, 0);
+        // A thread that failed would have left its tree half searched, so its exception is passed on
+        for (FutureTask<Void> worker : workers) {
+            try {
+                worker.get();
+            } catch (InterruptedException e) {
+                // Use whatever the tree has so far
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException("A search thread failed", e.getCause());
+            }
         }
 
         return getBestMoveFromFinishedTree();
     }
 
-    private Node selectAndExpandNewNode() {
+    // Searches the tree, stopping every other thread if this one fails
+    private void searchOrStop(int thread, int tree) {
+        boolean finished = false;
+        try {
+            search(thread, trees[tree], tables[tree], treeLocks[tree]);
+            finished = true;
+        } finally {
+            if (!finished) {
+                stopped = true;
+            }
+        }
+    }
+
+    // Runs iterations on the tree until the time manager stops the search, until the root is proven and there's nothing
+    // left to search, until the best move can't change (see canBestMoveChange), or until the thread has run its share
+    // of the iterations. The clock is only read every TIME_CHECK_INTERVAL iterations, and only thread 0 tells the time
+    // manager the best move. Each thread has its own copy of the root state, which the moves down the tree and the
+    // playout are made on and then unmade, so no other states are needed. thread numbers the search threads from 0, so
+    // each gets its own seed if the search has one.
+    private void search(int thread, NodePool tree, TranspositionTable table, ReentrantReadWriteLock lock) {
+        if (settings.getSeed() != null) {
+            SearchRandom.setSeed(settings.getSeed() + thread);
+        }
+        SearchPath path = new SearchPath();
+        PlayedMoves playedMoves = settings.getRaveEquivalence() == 0 ? null : new PlayedMoves();
+        State state = tree.getRootState().clone();
+        int maxNodes = settings.getMaxNodes() / trees.length;
+        int maxIterations = getMaxIterations(thread);
+        int iterations = 0;
+        while (!stopped && tree.getProof(NodePool.ROOT) == NodePool.UNPROVEN && iterations < maxIterations) {
+            if (iterations % TIME_CHECK_INTERVAL == 0) {
+                long now = System.nanoTime();
+                if (now >= timeManager.getHardEndTime()) {
+                    break;
+                }
+                boolean timeUp = thread == 0 && timeManager.shouldStop(now, getRootVisits().bestMove);
+                boolean bestMoveFound = settings.isSmartStop() && iterations != 0
+                        && iterations % SMART_STOP_INTERVAL == 0
+                        && !canBestMoveChange(now, timeManager.getEndTime(now));
+                if (timeUp || bestMoveFound) {
+                    stopped = true;
+                    break;
+                }
+            }
+            iterations++;
+            if (maxNodes == 0) {
+                runIteration(tree, table, path, playedMoves, state);
+                continue;
+            }
+
+            // With a node limit, iterations share the tree's lock so it can be pruned while none are running
+            if (tree.getNodeCount() > maxNodes) {
+                lock.writeLock().lock();
+                try {
+                    // Another thread may have just pruned it
+                    if (tree.getNodeCount() > maxNodes) {
+                        pruneTree(tree, (int) (maxNodes * PRUNE_TO));
+                        compactTree(tree, table);
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+            lock.readLock().lock();
+            try {
+                runIteration(tree, table, path, playedMoves, state);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    // The thread's share of the search's iterations, or Integer.MAX_VALUE if there's no limit
+    private int getMaxIterations(int thread) {
+        int maxIterations = settings.getMaxIterations();
+        if (maxIterations == 0) {
+            return Integer.MAX_VALUE;
+        }
+        int threads = settings.getThreads();
+        return maxIterations / threads + (thread < maxIterations % threads ? 1 : 0);
+    }
+
+    // A proven node doesn't need a playout, since its result is already known. playedMoves is null unless the AMAF
+    // stats are being used.
+    private void runIteration(NodePool tree, TranspositionTable table, SearchPath path, PlayedMoves playedMoves,
+                              State state) {
+        selectAndExpandNewNode(tree, table, path, state);
+        if (playedMoves != null) {
+            for (int i = 1; i < path.size(); i++) {
+                if (!path.isTransposition(i)) {
+                    playedMoves.add(tree.getMove(path.get(i)));
+                }
+            }
+        }
+        int node = path.getLast();
+        int proof = tree.getProof(node);
+        double playoutResult;
+        if (proof == NodePool.UNPROVEN) {
+            playoutResult = simulatePlayouts(state, playedMoves);
+        } else {
+            boolean weWin = (getMover(tree, node) == ourColour) == (proof == NodePool.PROVEN_WIN);
+            playoutResult = weWin ? settings.getPlayoutsPerLeaf() : 0;
+        }
+        backPropagateResult(tree, path, playoutResult);
+        if (playedMoves != null) {
+            updateAmaf(tree, path, playedMoves, playoutResult);
+            playedMoves.clear();
+        }
+        if (proof != NodePool.UNPROVEN) {
+            propagateProof(tree, path);
+        }
+        // Back to the root
+        for (int i = 0; i < path.getMoveCount(); i++) {
+            state.unmakeMove();
+        }
+    }
+
+    // Frees the subtrees below the least visited nodes until there are at most targetNodes nodes, or nothing but the
+    // root's children are left. The pruned nodes keep their own stats and can be expanded again later. Links to freed
+    // nodes are left alone, and are found to be out of date by their keys.
+    private static void pruneTree(NodePool tree, int targetNodes) {
+        int maxVisits = 1;
+        while (tree.getNodeCount() > targetNodes && maxVisits <= tree.getVisits(NodePool.ROOT)) {
+            int firstChild = tree.getFirstChild(NodePool.ROOT);
+            for (int child = firstChild; child < firstChild + tree.getChildCount(NodePool.ROOT); child++) {
+                pruneBelow(tree, child, maxVisits);
+            }
+            maxVisits *= 2;
+        }
+    }
+
+    // Moves the nodes left after pruning down over the freed ones, so the pool's memory stays within the node limit
+    // too. Every expanded node is put in the table again at its new index. The entries left pointing at old indices are
+    // found to be out of date by their keys, like those of freed nodes, so the table doesn't need clearing (which
+    // would take longer than the rest of this for a big table and a small tree).
+    private static void compactTree(NodePool tree, TranspositionTable table) {
+        tree.compact();
+        if (table != null) {
+            addToTable(tree, NodePool.ROOT, table);
+        }
+    }
+
+    // Frees the children of any node in this subtree with at most maxVisits visits
+    private static void pruneBelow(NodePool tree, int node, int maxVisits) {
+        int childCount = tree.getChildCount(node);
+        if (childCount == 0) {
+            return;
+        }
+        if (tree.getVisits(node) <= maxVisits) {
+            freeChildren(tree, node);
+            return;
+        }
+        int firstChild = tree.getFirstChild(node);
+        for (int child = firstChild; child < firstChild + childCount; child++) {
+            pruneBelow(tree, child, maxVisits);
+        }
+    }
+
+    // Frees everything below the node, making it a leaf again
+    private static void freeChildren(NodePool tree, int node) {
+        int childCount = tree.getChildCount(node);
+        int firstChild = tree.getFirstChild(node);
+        for (int child = firstChild; child < firstChild + childCount; child++) {
+            if (tree.getChildCount(child) != 0) {
+                freeChildren(tree, child);
+            }
+        }
+        tree.clearChildren(node);
+        tree.free(firstChild, childCount);
+    }
+
+    // Fills the path with the nodes from the root to the new node, making each node's move on the state. Every node on
+    // the path is given its visits as it's selected (see NodePool.addVisits), so threads searching at the same time
+    // spread out over the tree instead of all following the same path.
+    //
+    // With a transposition table the tree is really a graph: a leaf whose position is already expanded somewhere else
+    // in the tree carries on from that node, and both go on the path so both get the result.
+    private void selectAndExpandNewNode(NodePool tree, TranspositionTable table, SearchPath path, State state) {
+        int visits = settings.getPlayoutsPerLeaf();
         // Start at the root
-        Node node = root;
+        int node = NodePool.ROOT;
+        path.clear();
+        path.add(node);
+        tree.addVisits(node, visits);
+
+        // Traverse the tree, selecting the best score each time, until we have a leaf node or a proven node
+        while (tree.getChildCount(node) != 0 && tree.getProof(node) == NodePool.UNPROVEN) {
+            node = selectChild(tree, node, state);
+            path.add(node);
+            tree.addVisits(node, visits);
+            state.makeMove(tree.getMove(node));
+            if (table != null && tree.getChildCount(node) == 0) {
+                int transposition = findTransposition(tree, table, node, state);
+                if (transposition != -1) {
+                    node = transposition;
+                    path.addTransposition(node);
+                    tree.addVisits(node, visits);
+                }
+            }
+        }
+        // Expand node if it's still in progress. If another thread is already expanding it, just play out from here.
+        if (state.getGameStatus() == State.IN_PROGRESS && tree.getProof(node) == NodePool.UNPROVEN
+                && tree.claimExpansion(node)) {
+            expandNode(tree, table, node, state);
+            node = tree.getFirstChild(node) + SearchRandom.nextInt(0, getWidenedChildCount(tree, node));
+            path.add(node);
+            tree.addVisits(node, visits);
+            state.makeMove(tree.getMove(node));
+        }
 
-        // Traverse the tree, selecting the best UCT score each time, until we have a leaf node
-        while (node.getChildNodes().size() != 0) {
-            int parentVisits = node.getVisits();
-            node = Collections.max(node.getChildNodes(), Comparator.comparing(c -> UCTValue(c, parentVisits)));
+        // Checkmate is a proven win for the player who moved into it. Draws aren't proven, they're just played out
+        // again.
+        int status = state.getGameStatus();
+        if ((status == State.WHITE_WIN || status == State.BLACK_WIN) && tree.getProof(node) == NodePool.UNPROVEN) {
+            tree.setProof(node, NodePool.PROVEN_WIN);
         }
-        // Expand node if it's still in progress
-        if (node.getState().getGameStatus() == State.IN_PROGRESS) {
-            expandNode(node);
-            node = getRandomElement(node.getChildNodes());
+    }
+
+    // The node that the leaf shares its position with, or -1 if there isn't one. It's looked up in the table the first
+    // time and then kept as the leaf's link. Repeated positions are never linked, since what happens after them
+    // depends on how they were reached. A link's key is checked every time, because the node it points to may have
+    // been pruned and reused since.
+    static int findTransposition(NodePool tree, TranspositionTable table, int leaf, State state) {
+        long key = state.getHash();
+        int link = tree.getLink(leaf);
+        if (link != 0 && tree.getKey(link) == key) {
+            return link;
         }
+        if (state.getGameStatus() != State.IN_PROGRESS || state.isRepeatedPosition()) {
+            return -1;
+        }
+        link = table.get(key);
+        if (link == -1 || link == leaf || tree.getKey(link) != key) {
+            return -1;
+        }
+        tree.setKey(leaf, key);
+        tree.setLink(leaf, link);
+        return link;
+    }
 
-        return node;
+    // The child with the best score from the selection policy. The children are next to each other in the pool, so this
+    // is a simple scan. A child proven to win is always chosen and a child proven to lose never is, unless they all are
+    // (in which case the parent is proven too, and will stop being selected). parentState is the parent's position,
+    // which the priors are worked out from.
+    private int selectChild(NodePool tree, int parent, State parentState) {
+        SelectionPolicy policy = settings.getSelectionPolicy();
+        int parentVisits = tree.getVisits(parent);
+        // The parent's reward is from the other player's point of view
+        double parentMean = parentVisits == 0 ? 0.5 : 1 - tree.getReward(parent) / parentVisits;
+        int firstChild = tree.getFirstChild(parent);
+        int childCount = tree.getChildCount(parent);
+
+        // The priors are each child's share of the weights the capture playout policy gives the moves
+        Board board = parentState.getBoard();
+        int totalWeight = 0;
+        if (policy.usesPriors()) {
+            for (int child = firstChild; child < firstChild + childCount; child++) {
+                totalWeight += CapturePlayoutPolicy.weight(board, tree.getMove(child));
+            }
+        }
+
+        // Children proven to lose don't count towards the widened children, so a node never runs out of children to
+        // choose from while it has unproven ones
+        int widenedChildCount = getWidenedChildCount(tree, parent);
+        int choices = 0;
+        int bestChild = firstChild;
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int child = firstChild; child < firstChild + childCount && choices < widenedChildCount; child++) {
+            int proof = getProof(tree, child);
+            if (proof == NodePool.PROVEN_WIN) {
+                return child;
+            }
+            if (proof == NodePool.PROVEN_LOSS) {
+                continue;
+            }
+            choices++;
+            double prior = totalWeight == 0 ? 0
+                    : CapturePlayoutPolicy.weight(board, tree.getMove(child)) / (double) totalWeight;
+            double value = getValue(policy, tree, child, parentVisits, prior, parentMean);
+            if (value > bestValue) {
+                bestValue = value;
+                bestChild = child;
+            }
+        }
+        return bestChild;
     }
 
-    private void expandNode(Node parent) {
-        State boardState = parent.getState();
-        ArrayList<Move> validMoves = boardState.getAllLegalMoves();
-        validMoves.forEach(move -> {
-            State newBoardState = boardState.executeMove(move);
-            Node newNode = new Node(newBoardState);
-            newNode.setParentAndMove(parent, move);
-            parent.getChildNodes().add(newNode);
-        });
+    // Only the moves are stored for the children. Their positions are made when selection reaches them. The parent
+    // goes in the transposition table so other leaves with its position can share it, unless it's a repeated position.
+    //
+    // With progressive widening, the children are put in order of their moves' scores from MoveOrdering. Every child
+    // is still allocated now, since a node's children have to stay in one block, but only the widened ones are ever
+    // expanded themselves.
+    private void expandNode(NodePool tree, TranspositionTable table, int parent, State parentState) {
+        int childCount = parentState.getLegalMoveCount();
+        int firstChild = tree.allocate(childCount);
+        if (settings.isProgressiveWidening()) {
+            // Each move with its negated score above it, so sorting puts the best scores first
+            Board board = parentState.getBoard();
+            long[] orderedMoves = new long[childCount];
+            for (int i = 0; i < childCount; i++) {
+                int move = parentState.getLegalMove(i);
+                orderedMoves[i] = ((long) -MoveOrdering.score(board, move) << 32) | move;
+            }
+            Arrays.sort(orderedMoves);
+            for (int i = 0; i < childCount; i++) {
+                tree.setMove(firstChild + i, (int) orderedMoves[i]);
+            }
+        } else {
+            for (int i = 0; i < childCount; i++) {
+                tree.setMove(firstChild + i, parentState.getLegalMove(i));
+            }
+        }
+        boolean shared = table != null && !parentState.isRepeatedPosition();
+        if (shared) {
+            tree.setKey(parent, parentState.getHash());
+        }
+        // Other threads only see the children once they're all there
+        tree.setChildren(parent, firstChild, childCount);
+        if (shared) {
+            table.put(parentState.getHash(), parent);
+        }
+    }
+
+    // How many of the node's children selection can choose from
+    private int getWidenedChildCount(NodePool tree, int node) {
+        int childCount = tree.getChildCount(node);
+        if (!settings.isProgressiveWidening()) {
+            return childCount;
+        }
+        return Math.min(childCount, WIDENING_MIN_CHILDREN + (int) Math.sqrt(tree.getVisits(node)));
+    }
+
+    // Runs the batch of playouts from the state and returns their total result. All but one of them are run on the
+    // common fork join pool, each on its own copy of the state, while this thread runs the last.
+    // Only this thread's playout is added to playedMoves, if it isn't null.
+    private double simulatePlayouts(State state, PlayedMoves playedMoves) {
+        int playouts = settings.getPlayoutsPerLeaf();
+        if (playouts == 1) {
+            return simulatePlayout(state, playedMoves);
+        }
+
+        ArrayList<ForkJoinTask<Double>> tasks = new ArrayList<>(playouts - 1);
+        for (int i = 0; i < playouts - 1; i++) {
+            State playoutState = state.clone();
+            tasks.add(ForkJoinPool.commonPool().submit(() -> simulatePlayout(playoutState, null)));
+        }
+        double totalResult = simulatePlayout(state, playedMoves);
+        for (ForkJoinTask<Double> task : tasks) {
+            totalResult += task.join();
+        }
+        return totalResult;
     }
 
-    // Fairly temporary random playout simulator. Can likely be greatly improved.
-    private double simulatePlayout(Node node) {
-        // For the moment, random playout
-        State boardState = node.getState();
-        while (boardState.getGameStatus() == State.IN_PROGRESS) {
-            ArrayList<Move> validMoves = boardState.getAllLegalMoves();
-            boardState = boardState.executeMove(getRandomElement(validMoves));
+    // Plays the game out with moves chosen by the playout policy, or until the playout depth if there is one. The
+    // moves are made on the state and unmade afterwards, and added to playedMoves if it isn't null.
+    private double simulatePlayout(State state, PlayedMoves playedMoves) {
+        PlayoutPolicy policy = settings.getPlayoutPolicy();
+        int maxMoves = settings.getPlayoutDepth() == 0 ? Integer.MAX_VALUE : settings.getPlayoutDepth();
+        int movesMade = 0;
+        while (state.getGameStatus() == State.IN_PROGRESS && movesMade < maxMoves) {
+            int move = policy.chooseMove(state);
+            state.makeMove(move);
+            movesMade++;
+            if (playedMoves != null) {
+                playedMoves.add(move);
+            }
         }
 
         // Temporary basic reward function
-        if (boardState.getGameStatus() == State.WHITE_WIN) {
-            return ourColour == PlayerColour.WHITE ? 1 : 0;
-        } else if (boardState.getGameStatus() == State.BLACK_WIN) {
-            return ourColour == PlayerColour.BLACK ? 1 : 0;
+        double result;
+        if (state.getGameStatus() == State.IN_PROGRESS) {
+            result = evaluationResult(state);
+        } else if (state.getGameStatus() == State.WHITE_WIN) {
+            result = ourColour == PlayerColour.WHITE ? 1 : 0;
+        } else if (state.getGameStatus() == State.BLACK_WIN) {
+            result = ourColour == PlayerColour.BLACK ? 1 : 0;
         } else {
             // Draw
-            return 0.3; // We'd prefer to win once than draw 3 times.
+            result = 0.3; // We'd prefer to win once than draw 3 times.
+        }
+
+        for (int i = 0; i < movesMade; i++) {
+            state.unmakeMove();
+        }
+        return result;
+    }
+
+    // Scores a position from its static evaluation, from 0 when we're far behind to 1 when we're far ahead
+    private double evaluationResult(State state) {
+        int evaluation = state.getBoard().getEvaluation();
+        if (ourColour == PlayerColour.BLACK) {
+            evaluation = -evaluation;
+        }
+        return 1 / (1 + Math.pow(10, -evaluation / EVALUATION_SCALE));
+    }
+
+    // After the last node on the path has been proven, proves whatever it can on the way back up to the root (the
+    // MCTS-Solver rules). A parent is a loss for the player who moved into it if any of its children is a win for the
+    // player choosing between them, and a win if every child is a loss. A leaf linked to a proven node has the same
+    // proof, since it's the same position.
+    private static void propagateProof(NodePool tree, SearchPath path) {
+        for (int i = path.size() - 1; i > 0; i--) {
+            int node = path.get(i);
+            int parent = path.get(i - 1);
+            int proof = tree.getProof(node);
+            if (proof == NodePool.UNPROVEN || tree.getProof(parent) != NodePool.UNPROVEN) {
+                return;
+            }
+            if (path.isTransposition(i)) {
+                tree.setProof(parent, proof);
+                continue;
+            }
+
+            int parentProof = NodePool.PROVEN_WIN;
+            int firstChild = tree.getFirstChild(parent);
+            for (int child = firstChild; child < firstChild + tree.getChildCount(parent); child++) {
+                int childProof = getProof(tree, child);
+                if (childProof == NodePool.PROVEN_WIN) {
+                    parentProof = NodePool.PROVEN_LOSS;
+                    break;
+                }
+                if (childProof == NodePool.UNPROVEN) {
+                    parentProof = NodePool.UNPROVEN;
+                }
+            }
+            if (parentProof == NodePool.UNPROVEN) {
+                return;
+            }
+            tree.setProof(parent, parentProof);
+        }
+    }
+
+    // Rapid action value estimation: a move is assumed to be about as good whenever it's made, not just straight away
+    // (all moves as first). So every child of a node on the path whose move its player went on to make later in the
+    // iteration, in the tree or the playout, gets the result in its AMAF stats. A linked leaf's children are really
+    // the ones of the node it's linked to, which comes next on the path.
+    void updateAmaf(NodePool tree, SearchPath path, PlayedMoves playedMoves, double playoutResult) {
+        int visits = settings.getPlayoutsPerLeaf();
+        double opponentResult = visits - playoutResult;
+        // The index in playedMoves of the move made from each node
+        int moveIndex = 0;
+        for (int i = 0; i < path.size(); i++) {
+            if (i + 1 < path.size() && path.isTransposition(i + 1)) {
+                continue;
+            }
+            int node = path.get(i);
+            int firstChild = tree.getFirstChild(node);
+            for (int child = firstChild; child < firstChild + tree.getChildCount(node); child++) {
+                int move = tree.getMove(child);
+                if (playedMoves.playedSince(move, moveIndex)) {
+                    double result = Move.getColour(move) == ourColour ? playoutResult : opponentResult;
+                    tree.addAmafResult(child, visits, result);
+                }
+            }
+            moveIndex++;
+        }
+    }
+
+    // The node's proof, or for a linked leaf, the proof of the node it's linked to
+    private static int getProof(NodePool tree, int node) {
+        int link = tree.getLink(node);
+        if (link != 0 && tree.getKey(link) == tree.getKey(node)) {
+            return tree.getProof(link);
+        }
+        return tree.getProof(node);
+    }
+
+    // The player who made the move into the node. For the root, that's whoever isn't to move.
+    private static PlayerColour getMover(NodePool tree, int node) {
+        if (node == NodePool.ROOT) {
+            return PlayerColour.getOtherColour(tree.getRootState().getTurn());
+        }
+        return Move.getColour(tree.getMove(node));
+    }
+
+    // The visits were already counted during selection, so only the reward is added to each node on the path. The
+    // playout result is from our point of view, but each node stores it from the point of view of the player who moved
+    // into it, since that's who chooses between it and its siblings. So the opponent's nodes get the opposite result
+    // (negamax), and selection picks the best move for whoever's turn it is.
+    private void backPropagateResult(NodePool tree, SearchPath path, double playoutResult) {
+        double opponentResult = settings.getPlayoutsPerLeaf() - playoutResult;
+        for (int i = path.size() - 1; i >= 0; i--) {
+            int node = path.get(i);
+            tree.addReward(node, getMover(tree, node) == ourColour ? playoutResult : opponentResult);
+        }
+    }
+
+    // Whether the most visited move at the root could still be overtaken by the next most visited before endTime (both
+    // System.nanoTime), if the roots keep getting visits at the rate they have so far this search. Moves proven to
+    // lose aren't counted, so if there's only one move that isn't, it can't change.
+    private boolean canBestMoveChange(long now, long endTime) {
+        if (now <= searchStartTime) {
+            return true;
+        }
+        double remainingVisits = (double) (getTotalRootVisits() - searchStartVisits) * Math.max(0, endTime - now)
+                / (now - searchStartTime);
+
+        RootVisits rootVisits = getRootVisits();
+        if (rootVisits.moveCount == 0) {
+            // Either the root hasn't been expanded yet, or every move loses
+            return trees[0].getChildCount(NodePool.ROOT) == 0;
         }
+        return rootVisits.moveCount > 1 && rootVisits.bestVisits - rootVisits.secondBestVisits <= remainingVisits;
     }
 
-    private void backPropagateResult(Node node, double playoutResult) {
-        while (node != null) {
-            node.addVisit(playoutResult);
-            node = node.getParentNode();
+    // The visits of the moves at the root that aren't proven to lose. With one tree, its root's children are scanned
+    // directly. With more than one, each move's visits are added up over all the trees first, as in
+    // getBestMoveFromFinishedTree.
+    RootVisits getRootVisits() {
+        RootVisits rootVisits = new RootVisits();
+        if (trees.length == 1) {
+            NodePool tree = trees[0];
+            int firstChild = tree.getFirstChild(NodePool.ROOT);
+            for (int child = firstChild; child < firstChild + tree.getChildCount(NodePool.ROOT); child++) {
+                if (getProof(tree, child) != NodePool.PROVEN_LOSS) {
+                    rootVisits.add(tree.getMove(child), tree.getVisits(child));
+                }
+            }
+            return rootVisits;
         }
+
+        HashMap<Integer, Integer> visitsByMove = new HashMap<>();
+        for (NodePool tree : trees) {
+            int firstChild = tree.getFirstChild(NodePool.ROOT);
+            for (int child = firstChild; child < firstChild + tree.getChildCount(NodePool.ROOT); child++) {
+                if (getProof(tree, child) != NodePool.PROVEN_LOSS) {
+                    visitsByMove.merge(tree.getMove(child), tree.getVisits(child), Integer::sum);
+                }
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : visitsByMove.entrySet()) {
+            rootVisits.add(entry.getKey(), entry.getValue());
+        }
+        return rootVisits;
+    }
+
+    // The trees being searched, one per thread with ParallelMode.ROOT and otherwise just one
+    NodePool[] getTrees() {
+        return trees;
+    }
+
+    private int getTotalRootVisits() {
+        int visits = 0;
+        for (NodePool tree : trees) {
+            visits += tree.getVisits(NodePool.ROOT);
+        }
+        return visits;
     }
 
     // Returns the approximately best move to make from the root. Will be null if starting at a won/lost/drawn position.
+    // With more than one tree, each move's visits are added up over all the trees. A move proven to win is played
+    // straight away, and moves proven to lose are only played if every move is.
     private Move getBestMoveFromFinishedTree() {
-        Node bestNode = Collections.max(root.getChildNodes(), Comparator.comparing(Node::getVisits));
-        return bestNode.getMove();
+        HashMap<Integer, Integer> visitsByMove = new HashMap<>();
+        HashMap<Integer, Integer> visitsByLosingMove = new HashMap<>();
+        for (NodePool tree : trees) {
+            int firstChild = tree.getFirstChild(NodePool.ROOT);
+            for (int child = firstChild; child < firstChild + tree.getChildCount(NodePool.ROOT); child++) {
+                int proof = getProof(tree, child);
+                if (proof == NodePool.PROVEN_WIN) {
+                    return Move.fromPacked(tree.getMove(child));
+                }
+                (proof == NodePool.PROVEN_LOSS ? visitsByLosingMove : visitsByMove)
+                        .merge(tree.getMove(child), tree.getVisits(child), Integer::sum);
+            }
+        }
+        // With more than one tree, a move may be proven to lose in one but not yet in another
+        visitsByMove.keySet().removeAll(visitsByLosingMove.keySet());
+        if (visitsByMove.isEmpty()) {
+            visitsByMove = visitsByLosingMove;
+        }
+        int bestMove = Collections.max(visitsByMove.entrySet(), Map.Entry.comparingByValue()).getKey();
+        return Move.fromPacked(bestMove);
     }
 
-    private double UCTValue(Node node, int parentVisits) {
-        if (node.getVisits() == 0) {
-            // Always visit each node once
-            return Integer.MAX_VALUE;
+    // The node's score from the selection policy. A linked leaf's mean comes from the node it's linked to, which has
+    // the results from every path to the position. Its own visits, which only count this move being chosen from this
+    // parent, are still what decides how much it's explored.
+    //
+    // With RAVE, the mean is blended with the AMAF mean, which is trusted less as the node gets more visits of its own
+    // (beta = sqrt(k / (3n + k)) for n visits and an equivalence of k).
+    double getValue(SelectionPolicy policy, NodePool tree, int node, int parentVisits, double prior,
+                    double parentMean) {
+        int visits = tree.getVisits(node);
+        if (visits == 0) {
+            return policy.value(0, 0, parentVisits, prior, parentMean);
         }
 
-        return node.getReward() / (double) node.getVisits()
-                + Math.sqrt(2.0 * Math.log(parentVisits) / (double) node.getVisits());
+        int statsNode = node;
+        int link = tree.getLink(node);
+        if (link != 0 && tree.getVisits(link) != 0 && tree.getKey(link) == tree.getKey(node)) {
+            statsNode = link;
+        }
+        double mean = tree.getReward(statsNode) / tree.getVisits(statsNode);
+        int raveEquivalence = settings.getRaveEquivalence();
+        int amafVisits = tree.getAmafVisits(node);
+        if (raveEquivalence != 0 && amafVisits != 0) {
+            double beta = Math.sqrt(raveEquivalence / (3.0 * visits + raveEquivalence));
+            mean = (1 - beta) * mean + beta * tree.getAmafReward(node) / amafVisits;
+        }
+        return policy.value(mean, visits, parentVisits, prior, parentMean);
     }
 
-    /**
-     * Helper function to get a random element from a list
-     *
-     * @param list the list
-     * @param <T> the type of the list
-     *
-     * @return the random element
-     */
-    private <T> T getRandomElement(List<T> list) {
-        return list.get(randomInt(0, list.size()));
+    // The nodes from the root to the node being searched, used to backpropagate without storing parents in the tree.
+    // Each node after the root was reached either by making its move or by following a link from the node before it,
+    // which doesn't make a move.
+    static class SearchPath {
+        private int[] nodes = new int[64];
+        private boolean[] transpositions = new boolean[64];
+        private int size;
+        private int transpositionCount;
+
+        // The root, or a node reached by making its move
+        void add(int node) {
+            add(node, false);
+        }
+
+        // A node reached by following a link from the last node
+        private void addTransposition(int node) {
+            add(node, true);
+            transpositionCount++;
+        }
+
+        private void add(int node, boolean transposition) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                transpositions = Arrays.copyOf(transpositions, size * 2);
+            }
+            transpositions[size] = transposition;
+            nodes[size++] = node;
+        }
+
+        private boolean isTransposition(int index) {
+            return transpositions[index];
+        }
+
+        private int get(int index) {
+            return nodes[index];
+        }
+
+        private int getLast() {
+            return nodes[size - 1];
+        }
+
+        private int size() {
+            return size;
+        }
+
+        // The number of moves made from the root to the last node
+        private int getMoveCount() {
+            return size - 1 - transpositionCount;
+        }
+
+        private void clear() {
+            size = 0;
+            transpositionCount = 0;
+        }
     }
 
-    /**
-     * Helper function for generating a random int from min to max (inclusive min, exclusive max)
-     *
-     * @param min the lower bound of the random range (inclusive)
-     * @param max the upper bound of the random range (exclusive)
-     *
-     * @return the random number
-     */
-    private static int randomInt(int min, int max) {
-        if (min >= max) {
-            throw new IllegalArgumentException("max must be greater than min");
+    // The two most visited of the moves at the root, and how many moves there are, see getRootVisits
+    static class RootVisits {
+        // The packed most visited move, or 0 if there aren't any moves
+        int bestMove;
+        int bestVisits;
+        int secondBestVisits;
+        int moveCount;
+
+        private void add(int move, int visits) {
+            moveCount++;
+            if (moveCount == 1 || visits > bestVisits) {
+                secondBestVisits = bestVisits;
+                bestVisits = visits;
+                bestMove = move;
+            } else if (visits > secondBestVisits) {
+                secondBestVisits = visits;
+            }
+        }
+    }
+
+    // The moves made in an iteration, from the root to the end of the playout, for updating the AMAF stats
+    static class PlayedMoves {
+        private int[] moves = new int[256];
+        private int size;
+
+        // For each move's key (see getKey), one more than the index it was last made at, or 0 if it hasn't been
+        private final int[] lastPlayed = new int[2 * 64 * 64];
+
+        void add(int move) {
+            if (size == moves.length) {
+                moves = Arrays.copyOf(moves, size * 2);
+            }
+            moves[size++] = move;
+            lastPlayed[getKey(move)] = size;
+        }
+
+        // Whether the same player made the same move at the index or later
+        private boolean playedSince(int move, int index) {
+            return lastPlayed[getKey(move)] > index;
         }
 
-        Random r = new Random();
-        return r.nextInt(max - min) + min;
+        private void clear() {
+            for (int i = 0; i < size; i++) {
+                lastPlayed[getKey(moves[i])] = 0;
+            }
+            size = 0;
+        }
+
+        // Moves are matched by their player and squares, so a promotion matches promoting to any piece
+        private static int getKey(int move) {
+            return (Move.getColour(move).ordinal() << 12) | (Move.getOldSquare(move) << 6) | Move.getNewSquare(move);
+        }
     }
 }
@@ -13,41 +13,56 @@ import java.util.Scanner;
 // Entry point for the engine
 public class Main {
 
-    // Basic playing method. User inputs enemy moves and time remaining before each move
+    private static final long MAX_MOVE_MILLIS = 15000;
+
+    // Basic playing method. User inputs enemy moves and time remaining before each move. The first argument is our
+    // colour, and the optional second argument is the number of search threads (one if it isn't given).
     public static void main(String[] args) {
         if (args.length == 1) {
             // Starting from start board
         }
         PlayerColour ourColour = args[0].equals("white") ? PlayerColour.WHITE : PlayerColour.BLACK;
 
+        SearchSettings settings = new SearchSettings();
+        if (args.length > 1) {
+            settings.setThreads(Integer.parseInt(args[1]));
+        }
+
         State currentState = new State();
+        // The same search is used all game, so its tree carries over from one move to the next
+        MCTS search = new MCTS(currentState, 0, ourColour, settings);
 
         if (ourColour == PlayerColour.BLACK) {
             // Read the oppositions move for the first move (white starts)
-            currentState = takeInMoveInput(currentState);
+            Move move = takeInMoveInput(currentState);
+            currentState = currentState.executeMove(move);
+            search.playMove(move);
         }
 
         while (true) {
             // Take in the remaining time as an input
             int timeRemaining = takeInTimeInput();
-            // Time per move is maximum of 15 seconds or 5% of remaining time
-            int timeToUse = Math.min(15000, 50 * timeRemaining);
+            // Only the remaining time is given, so there's no increment and the number of moves left isn't known. No
+            // move takes more than 15 seconds, however much time is left.
+            search.setTimeManager(TimeManager.forClock(timeRemaining * 1000L, 0, 0, MAX_MOVE_MILLIS));
 
             // Search for the best move
-            MCTS search = new MCTS(currentState, timeToUse, ourColour);
             Move bestMove = search.getBestMove();
 
             // Output the move then execute it
             System.out.println(bestMove.toString());
             currentState = currentState.executeMove(bestMove);
+            search.playMove(bestMove);
 
             // Read the oppositions move
-            currentState = takeInMoveInput(currentState);
+            Move move = takeInMoveInput(currentState);
+            currentState = currentState.executeMove(move);
+            search.playMove(move);
         }
     }
 
-    // Execute opposition move
-    private static State takeInMoveInput(State currentState) {
+    // Read the opposition's move
+    private static Move takeInMoveInput(State currentState) {
         System.out.println("Enter the enemy's move: ");
         Move move = null;
         while (move == null) {
@@ -59,7 +74,7 @@ public class Main {
             }
         }
 
-        return currentState.executeMove(move);
+        return move;
     }
 
     // Get the time remaining as an integer
@@ -0,0 +1,44 @@
+package search;
+
+import chessboard.AttackTables;
+import chessboard.Board;
+import chessboard.Evaluation;
+import chessboard.Move;
+import chessboard.Piece;
+import chessboard.PlayerColour;
+
+/**
+ * Scores moves by how promising they look before any searching, so a node's children can be put in order when it's
+ * expanded (see SearchSettings.setProgressiveWidening). Captures and promotions come first, ordered as
+ * CapturePlayoutPolicy weights them, then checks, then moves that take a piece to a better square (see
+ * chessboard.Evaluation).
+ */
+class MoveOrdering {
+    // How much each point of CapturePlayoutPolicy weight is worth, so a capture always comes before a quiet check
+    private static final int WEIGHT_SCORE = 300;
+
+    private static final int CHECK_SCORE = 200;
+
+    private MoveOrdering() {
+    }
+
+    // Higher is more promising. Only direct checks are spotted, not discovered ones.
+    static int score(Board board, int move) {
+        int oldSquare = Move.getOldSquare(move);
+        int newSquare = Move.getNewSquare(move);
+        PlayerColour colour = Move.getColour(move);
+        int score = WEIGHT_SCORE * (CapturePlayoutPolicy.weight(board, move) - 1);
+
+        Piece piece = Move.getType(move) == Move.PROMOTING ? Move.getPromotionPiece(move) : Move.getPiece(move);
+        long occupied = (board.getOccupied() & ~(1L << oldSquare)) | (1L << newSquare);
+        long theirKing = board.getBitboard(Piece.KING, PlayerColour.getOtherColour(colour));
+        if ((AttackTables.attacks(piece, colour, newSquare, occupied) & theirKing) != 0) {
+            score += CHECK_SCORE;
+        }
+
+        // Black's piece values are negative
+        int squareGain = Evaluation.pieceValue(Move.getPieceIndex(move), newSquare)
+                - Evaluation.pieceValue(Move.getPieceIndex(move), oldSquare);
+        return score + (colour == PlayerColour.WHITE ? squareGain : -squareGain);
+    }
+}
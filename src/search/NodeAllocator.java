@@ -0,0 +1,163 @@
+package search;
+
+import chessboard.MoveList;
+
+import java.util.Arrays;
+
+/**
+ * Decides where blocks of nodes go in a NodePool. Freed blocks are kept by size and reused before the pool grows, but
+ * only by blocks of the same size, so a pruned tree is compacted to stay the same size in memory. Not thread safe: the
+ * pools synchronise around it, except that the node count can be read at any time.
+ */
+class NodeAllocator {
+    // The first node of each freed block, indexed by block size
+    private final int[][] freeBlocks = new int[MoveList.MAX_LEGAL_MOVES + 1][];
+    private final int[] freeBlockCounts = new int[MoveList.MAX_LEGAL_MOVES + 1];
+
+    // Number of nodes the pool has grown to, including any left unused at the end of a chunk
+    private int size;
+
+    private int freeNodes;
+
+    // size - freeNodes, kept separately so it can be read without the pool's lock
+    private volatile int nodeCount;
+
+    NodeAllocator() {
+    }
+
+    // For a pool loaded with size nodes already in it
+    NodeAllocator(int size) {
+        this.size = size;
+        nodeCount = size;
+    }
+
+    // Returns the first node of a block of count nodes, reusing a freed block of that size if there is one. A new
+    // block goes straight after the last one, or at the start of the next chunk if it wouldn't fit in this one.
+    int allocate(int count) {
+        if (freeBlockCounts[count] > 0) {
+            freeNodes -= count;
+            nodeCount = size - freeNodes;
+            return freeBlocks[count][--freeBlockCounts[count]];
+        }
+
+        int first = size;
+        if ((first >>> NodePool.CHUNK_BITS) != ((first + count - 1) >>> NodePool.CHUNK_BITS)) {
+            first = (first + count - 1) & ~NodePool.CHUNK_MASK;
+        }
+        if (((first + count - 1) >>> NodePool.CHUNK_BITS) >= NodePool.MAX_CHUNKS) {
+            throw new IllegalStateException("Node pool is full");
+        }
+        size = first + count;
+        nodeCount = size - freeNodes;
+        return first;
+    }
+
+    // Makes a block returned by allocate available again
+    void free(int first, int count) {
+        if (freeBlocks[count] == null) {
+            freeBlocks[count] = new int[16];
+        } else if (freeBlockCounts[count] == freeBlocks[count].length) {
+            freeBlocks[count] = Arrays.copyOf(freeBlocks[count], freeBlockCounts[count] * 2);
+        }
+        freeBlocks[count][freeBlockCounts[count]++] = first;
+        freeNodes += count;
+        nodeCount = size - freeNodes;
+    }
+
+    // Goes back to an earlier size, taking back the new block allocate just returned when the pool has no room for it
+    void shrink(int size) {
+        this.size = size;
+        nodeCount = size - freeNodes;
+    }
+
+    /**
+     * Lays the blocks of the pool's tree out again from the start of the pool, in the order they're already in, and
+     * forgets the freed blocks. Each block moves down or stays where it is, so moving them one at a time in that order
+     * never overwrites a block that hasn't been moved yet. The new places are found the same way allocate finds them,
+     * so no block goes over the end of a chunk.
+     *
+     * @param pool the pool, whose tree is used to find the blocks in use.
+     * @param mover moves a node's record to a lower index and clears the old one.
+     */
+    void compact(NodePool pool, NodeMover mover) {
+        // Each block in use: its first node, number of nodes and the node it's the children of
+        int[] firstNodes = new int[64];
+        int[] counts = new int[64];
+        int[] parents = new int[64];
+        int blockCount = 0;
+        if (pool.getChildCount(NodePool.ROOT) != 0) {
+            firstNodes[0] = pool.getFirstChild(NodePool.ROOT);
+            counts[0] = pool.getChildCount(NodePool.ROOT);
+            parents[0] = NodePool.ROOT;
+            blockCount = 1;
+        }
+        for (int block = 0; block < blockCount; block++) {
+            for (int node = firstNodes[block]; node < firstNodes[block] + counts[block]; node++) {
+                if (pool.getChildCount(node) == 0) {
+                    continue;
+                }
+                if (blockCount == firstNodes.length) {
+                    firstNodes = Arrays.copyOf(firstNodes, blockCount * 2);
+                    counts = Arrays.copyOf(counts, blockCount * 2);
+                    parents = Arrays.copyOf(parents, blockCount * 2);
+                }
+                firstNodes[blockCount] = pool.getFirstChild(node);
+                counts[blockCount] = pool.getChildCount(node);
+                parents[blockCount] = node;
+                blockCount++;
+            }
+        }
+
+        // Each block's first node above its index, so sorting puts the blocks in the order they're in the pool
+        long[] order = new long[blockCount];
+        for (int block = 0; block < blockCount; block++) {
+            order[block] = ((long) firstNodes[block] << 32) | block;
+        }
+        Arrays.sort(order);
+
+        // Where each node went, or -1 if it was freed
+        int[] newNodes = new int[size];
+        Arrays.fill(newNodes, -1);
+        newNodes[NodePool.ROOT] = NodePool.ROOT;
+        Arrays.fill(freeBlockCounts, 0);
+        freeNodes = 0;
+        size = 1;
+        int[] newFirstNodes = new int[blockCount];
+        for (long entry : order) {
+            int block = (int) entry;
+            int newFirst = allocate(counts[block]);
+            for (int i = 0; i < counts[block]; i++) {
+                if (newFirst != firstNodes[block]) {
+                    mover.move(firstNodes[block] + i, newFirst + i);
+                }
+                newNodes[firstNodes[block] + i] = newFirst + i;
+            }
+            newFirstNodes[block] = newFirst;
+        }
+        nodeCount = size;
+
+        for (int block = 0; block < blockCount; block++) {
+            pool.setChildren(newNodes[parents[block]], newFirstNodes[block], counts[block]);
+        }
+        for (int node = 0; node < size; node++) {
+            int link = pool.getLink(node);
+            if (link != 0) {
+                pool.setLink(node, link < newNodes.length ? Math.max(0, newNodes[link]) : 0);
+            }
+        }
+    }
+
+    // Moves the record of a node in a pool, see compact
+    interface NodeMover {
+        void move(int from, int to);
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    // Nodes allocated and not freed
+    int getNodeCount() {
+        return nodeCount;
+    }
+}
@@ -0,0 +1,117 @@
+package search;
+
+import chessboard.State;
+
+/**
+ * Stores an MCTS tree, one record per node, with nodes referred to by their index. A node's children are always next
+ * to each other, so a node only needs the index of its first child and how many there are. The root is always node
+ * ROOT. Only the root's state is stored: any other node's position is found by making the moves on the path to it from
+ * the root.
+ *
+ * Nodes are stored in chunks of CHUNK_SIZE that are only allocated when needed. Several threads can search the same
+ * tree: the visits and reward are updated without locking, and a node's children are only published once they're all
+ * filled in.
+ */
+public interface NodePool {
+    int ROOT = 0;
+
+    int CHUNK_BITS = 16;
+    int CHUNK_SIZE = 1 << CHUNK_BITS;
+    int CHUNK_MASK = CHUNK_SIZE - 1;
+    int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+
+    // Roughly how much memory each node takes, for turning a memory budget into a number of nodes. It's exactly the
+    // size of an OffHeapNodePool record.
+    int NODE_BYTES = 56;
+
+    // Child counts while a node is being expanded, and before it has been
+    int EXPANDING = -1;
+    int NOT_EXPANDED = 0;
+
+    // What's been proven about a node, from the point of view of the player who moved into it: nothing yet, that they
+    // win whatever the other player does, or that they lose whatever they do
+    int UNPROVEN = 0;
+    int PROVEN_WIN = 1;
+    int PROVEN_LOSS = 2;
+
+    // Reserves count nodes next to each other and returns the index of the first, reusing freed nodes if it can.
+    // count must be at most chessboard.MoveList.MAX_LEGAL_MOVES.
+    int allocate(int count);
+
+    // Frees a block returned by allocate so it can be reused, clearing its nodes. Must only be called while no other
+    // thread is using the tree.
+    void free(int firstNode, int count);
+
+    // Moves the nodes in use down over the freed ones, so the pool is no bigger than its nodes need. A freed block is
+    // only reused for a block of the same size, so a tree that's pruned over and over keeps growing without this. Links
+    // follow the nodes they point to, and links to freed nodes are cleared, but anything else holding node indices
+    // (such as a TranspositionTable) is out of date afterwards. Must only be called while no other thread is using the
+    // tree.
+    void compact();
+
+    // Number of nodes the pool has grown to, including freed ones, which is what its memory use follows
+    int getSize();
+
+    // Number of nodes allocated and not freed. Doesn't lock, so it's cheap enough to check every iteration.
+    int getNodeCount();
+
+    // Counts visits before their results are known. Until the results are added they act as losses, which steers other
+    // threads away from the path being searched (virtual loss).
+    void addVisits(int node, int count);
+
+    // Adds the total result of visits already counted by addVisits
+    void addReward(int node, double result);
+
+    // Returns true for exactly one caller, which should then allocate the children and call setChildren
+    boolean claimExpansion(int node);
+
+    // Publishes the children of a node claimed with claimExpansion. They must already have their moves.
+    void setChildren(int node, int firstChild, int childCount);
+
+    // Makes the node a leaf again, after its children have been freed. Its own stats are kept. Must only be called
+    // while no other thread is using the tree.
+    void clearChildren(int node);
+
+    // The move from the parent to the node, packed into an int (see chessboard.Move.pack)
+    void setMove(int node, int move);
+
+    int getVisits(int node);
+
+    double getReward(int node);
+
+    // Adds to the node's all-moves-as-first stats: results of iterations where the node's move was played later on,
+    // rather than straight away (see SearchSettings.setRaveEquivalence)
+    void addAmafResult(int node, int visits, double result);
+
+    int getAmafVisits(int node);
+
+    double getAmafReward(int node);
+
+    // 0 until the node's children have been published
+    int getChildCount(int node);
+
+    // Only meaningful once getChildCount is more than 0
+    int getFirstChild(int node);
+
+    int getMove(int node);
+
+    // The Zobrist key of the node's position (see chessboard.State.getHash), or 0 if it hasn't been set. Only set for
+    // nodes that can be found in a TranspositionTable and for the leaves linked to them.
+    void setKey(int node, long key);
+
+    long getKey(int node);
+
+    // A leaf can be linked to another node with the same position (a transposition), whose stats and children it then
+    // shares. 0 if it isn't linked, since the root is never a transposition of anything below it.
+    void setLink(int node, int link);
+
+    int getLink(int node);
+
+    // UNPROVEN, PROVEN_WIN or PROVEN_LOSS. Once a node is proven it stays that way.
+    void setProof(int node, int proof);
+
+    int getProof(int node);
+
+    // The position at the root. It must not be changed, so clone it to make moves on it.
+    State getRootState();
+}
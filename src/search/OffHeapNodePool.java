@@ -0,0 +1,364 @@
+package search;
+
+import chessboard.State;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Stores an MCTS tree outside the Java heap, so its size is limited by disk rather than the heap size and the garbage
+ * collector never has to look at it. Each node is a fixed size record in a chunk of a memory mapped file: the file the
+ * pool is given, or otherwise a temporary file that's deleted when the pool is closed. Mapped files don't count towards
+ * the JVM's direct memory limit (-XX:MaxDirectMemorySize, which is the heap size by default), and the operating system
+ * only keeps the parts of them being used in memory.
+ *
+ * A pool can be written to a checkpoint file and loaded again later to carry on searching. A checkpoint is a header
+ * followed by the chunks, which is also the layout of a pool's mapped file, so loading just maps the file again.
+ */
+public class OffHeapNodePool implements NodePool {
+    // Where each field is in a node's record
+    private static final int VISITS = 0;
+    private static final int CHILD_COUNT = 4;
+    private static final int FIRST_CHILD = 8;
+    private static final int MOVE = 12;
+    // The total reward, stored as the bits of a double so it can be added to with compare and set
+    private static final int REWARD_BITS = 16;
+    private static final int KEY = 24;
+    private static final int LINK = 32;
+    private static final int PROOF = 36;
+    private static final int AMAF_VISITS = 40;
+    // Padded so every record's doubles and key stay 8 byte aligned, making each record NODE_BYTES long
+    private static final int AMAF_REWARD_BITS = 48;
+
+    private static final int CHUNK_BYTES = CHUNK_SIZE * NODE_BYTES;
+
+    // The header has an identifying number, the number of nodes, the root position's key and the size of a node's
+    // record. It's padded to a page so the chunks after it are page aligned.
+    private static final int HEADER_BYTES = 4096;
+    private static final int MAGIC = 0x4D435453;
+
+    private static final VarHandle intHandle =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle longHandle =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer[] chunks = new ByteBuffer[MAX_CHUNKS];
+
+    private final State rootState;
+
+    // Null if the pool is in a temporary file
+    private final Path file;
+    private final FileChannel channel;
+
+    // Freed nodes aren't recorded in checkpoints, so they stay unused after loading one
+    private final NodeAllocator allocator;
+
+    // A pool in a temporary file
+    public OffHeapNodePool(State rootState) throws IOException {
+        this.rootState = rootState;
+        file = null;
+        channel = FileChannel.open(Files.createTempFile("mcts", ".tree"), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        allocator = new NodeAllocator();
+        allocate(1);
+    }
+
+    // A pool mapped to the file, replacing anything already in it
+    public OffHeapNodePool(State rootState, Path file) throws IOException {
+        this.rootState = rootState;
+        this.file = file;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        allocator = new NodeAllocator();
+        allocate(1);
+    }
+
+    // Used by load, for a file that already has size nodes
+    private OffHeapNodePool(State rootState, Path file, FileChannel channel, int size) throws IOException {
+        this.rootState = rootState;
+        this.file = file;
+        this.channel = channel;
+        allocator = new NodeAllocator(size);
+        for (int chunk = 0; chunk <= (size - 1) >>> CHUNK_BITS; chunk++) {
+            chunks[chunk] = mapChunk(chunk);
+        }
+    }
+
+    /**
+     * Loads a pool from a checkpoint written by checkpoint. The checkpoint file is mapped rather than read in, so the
+     * pool carries on growing in that file.
+     *
+     * @param file the checkpoint file.
+     * @param rootState the position the checkpoint was made from.
+     *
+     * @return the pool.
+     *
+     * @throws IOException if the file can't be read, isn't a checkpoint, or is for a different position.
+     */
+    public static OffHeapNodePool load(Path file, State rootState) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < 20 || header.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException("Not a search tree checkpoint");
+        }
+        int size = header.getInt();
+        if (header.getLong() != rootState.getHash()) {
+            channel.close();
+            throw new IOException("Checkpoint is for a different position");
+        }
+        if (header.getInt() != NODE_BYTES) {
+            channel.close();
+            throw new IOException("Checkpoint has a different node layout");
+        }
+        return new OffHeapNodePool(rootState, file, channel, size);
+    }
+
+    /**
+     * Writes the pool to a checkpoint file, which can be loaded with load. If the pool is mapped to that file already,
+     * its header is updated and everything is flushed to disk. Must not be called while the tree is being searched.
+     *
+     * @param checkpointFile where to write the checkpoint.
+     *
+     * @throws IOException if the file can't be written.
+     */
+    public synchronized void checkpoint(Path checkpointFile) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(allocator.getSize()).putLong(rootState.getHash()).putInt(NODE_BYTES);
+        header.clear();
+
+        if (file != null && Files.exists(checkpointFile) && Files.isSameFile(file, checkpointFile)) {
+            for (ByteBuffer chunk : chunks) {
+                if (chunk == null) {
+                    break;
+                }
+                ((MappedByteBuffer) chunk).force();
+            }
+            channel.write(header, 0);
+            channel.force(true);
+            return;
+        }
+
+        try (FileChannel out = FileChannel.open(checkpointFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            out.write(header);
+            for (ByteBuffer chunk : chunks) {
+                if (chunk == null) {
+                    break;
+                }
+                // A duplicate so writing doesn't move the chunk's own position
+                ByteBuffer data = chunk.duplicate();
+                data.clear().limit(CHUNK_BYTES);
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+            }
+        }
+    }
+
+    // The file the pool is mapped to, or null if it's in a temporary file
+    public Path getFile() {
+        return file;
+    }
+
+    // Closes the pool's file, deleting it if it's temporary. The pool can't grow after this.
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public synchronized int allocate(int count) {
+        int oldSize = allocator.getSize();
+        int first = allocator.allocate(count);
+        int chunk = first >>> CHUNK_BITS;
+        if (chunks[chunk] == null) {
+            try {
+                chunks[chunk] = mapChunk(chunk);
+            } catch (IOException e) {
+                // The block has nowhere to go, so it's taken back and the pool stays as it was
+                allocator.shrink(oldSize);
+                throw new IllegalStateException("Couldn't grow the node pool's file", e);
+            }
+        }
+        return first;
+    }
+
+    @Override
+    public synchronized void free(int firstNode, int count) {
+        ByteBuffer chunk = chunks[firstNode >>> CHUNK_BITS];
+        for (int i = offset(firstNode); i < offset(firstNode) + count * NODE_BYTES; i += 4) {
+            intHandle.set(chunk, i, 0);
+        }
+        allocator.free(firstNode, count);
+    }
+
+    @Override
+    public synchronized void compact() {
+        allocator.compact(this, this::moveNode);
+    }
+
+    // Copies a node's record to another index and clears the old one
+    private void moveNode(int from, int to) {
+        ByteBuffer fromChunk = chunks[from >>> CHUNK_BITS];
+        ByteBuffer toChunk = chunks[to >>> CHUNK_BITS];
+        for (int i = 0; i < NODE_BYTES; i += 4) {
+            intHandle.set(toChunk, offset(to) + i, (int) intHandle.get(fromChunk, offset(from) + i));
+            intHandle.set(fromChunk, offset(from) + i, 0);
+        }
+    }
+
+    @Override
+    public int getNodeCount() {
+        return allocator.getNodeCount();
+    }
+
+    @Override
+    public synchronized int getSize() {
+        return allocator.getSize();
+    }
+
+    // Maps a chunk of the file, which grows the file if the chunk is past the end of it. The header and chunks are
+    // multiples of 8 bytes long, so the rewards are aligned and can be updated atomically.
+    private MappedByteBuffer mapChunk(int chunk) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + (long) chunk * CHUNK_BYTES, CHUNK_BYTES);
+    }
+
+    @Override
+    public void addVisits(int node, int count) {
+        intHandle.getAndAdd(chunks[node >>> CHUNK_BITS], offset(node) + VISITS, count);
+    }
+
+    @Override
+    public void addReward(int node, double result) {
+        addDouble(chunks[node >>> CHUNK_BITS], offset(node) + REWARD_BITS, result);
+    }
+
+    @Override
+    public void addAmafResult(int node, int visits, double result) {
+        intHandle.getAndAdd(chunks[node >>> CHUNK_BITS], offset(node) + AMAF_VISITS, visits);
+        addDouble(chunks[node >>> CHUNK_BITS], offset(node) + AMAF_REWARD_BITS, result);
+    }
+
+    // Adds to a double stored as its bits at index i of the chunk
+    private static void addDouble(ByteBuffer chunk, int i, double value) {
+        long oldBits;
+        long newBits;
+        do {
+            oldBits = (long) longHandle.getVolatile(chunk, i);
+            newBits = Double.doubleToRawLongBits(Double.longBitsToDouble(oldBits) + value);
+        } while (!longHandle.compareAndSet(chunk, i, oldBits, newBits));
+    }
+
+    @Override
+    public boolean claimExpansion(int node) {
+        return intHandle.compareAndSet(chunks[node >>> CHUNK_BITS], offset(node) + CHILD_COUNT, NOT_EXPANDED,
+                EXPANDING);
+    }
+
+    @Override
+    public void setChildren(int node, int firstChild, int childCount) {
+        ByteBuffer chunk = chunks[node >>> CHUNK_BITS];
+        intHandle.set(chunk, offset(node) + FIRST_CHILD, firstChild);
+        // Other threads only look at the first child after seeing the count, so this must come last
+        intHandle.setVolatile(chunk, offset(node) + CHILD_COUNT, childCount);
+    }
+
+    @Override
+    public void clearChildren(int node) {
+        ByteBuffer chunk = chunks[node >>> CHUNK_BITS];
+        intHandle.set(chunk, offset(node) + CHILD_COUNT, NOT_EXPANDED);
+        intHandle.set(chunk, offset(node) + FIRST_CHILD, 0);
+    }
+
+    @Override
+    public void setMove(int node, int move) {
+        intHandle.set(chunks[node >>> CHUNK_BITS], offset(node) + MOVE, move);
+    }
+
+    @Override
+    public int getVisits(int node) {
+        return (int) intHandle.getVolatile(chunks[node >>> CHUNK_BITS], offset(node) + VISITS);
+    }
+
+    @Override
+    public double getReward(int node) {
+        return Double.longBitsToDouble((long) longHandle.getVolatile(chunks[node >>> CHUNK_BITS],
+                offset(node) + REWARD_BITS));
+    }
+
+    @Override
+    public int getAmafVisits(int node) {
+        return (int) intHandle.getVolatile(chunks[node >>> CHUNK_BITS], offset(node) + AMAF_VISITS);
+    }
+
+    @Override
+    public double getAmafReward(int node) {
+        return Double.longBitsToDouble((long) longHandle.getVolatile(chunks[node >>> CHUNK_BITS],
+                offset(node) + AMAF_REWARD_BITS));
+    }
+
+    @Override
+    public int getChildCount(int node) {
+        return Math.max(0, (int) intHandle.getVolatile(chunks[node >>> CHUNK_BITS], offset(node) + CHILD_COUNT));
+    }
+
+    @Override
+    public int getFirstChild(int node) {
+        return (int) intHandle.get(chunks[node >>> CHUNK_BITS], offset(node) + FIRST_CHILD);
+    }
+
+    @Override
+    public int getMove(int node) {
+        return (int) intHandle.get(chunks[node >>> CHUNK_BITS], offset(node) + MOVE);
+    }
+
+    @Override
+    public void setKey(int node, long key) {
+        longHandle.setVolatile(chunks[node >>> CHUNK_BITS], offset(node) + KEY, key);
+    }
+
+    @Override
+    public long getKey(int node) {
+        return (long) longHandle.getVolatile(chunks[node >>> CHUNK_BITS], offset(node) + KEY);
+    }
+
+    @Override
+    public void setLink(int node, int link) {
+        intHandle.set(chunks[node >>> CHUNK_BITS], offset(node) + LINK, link);
+    }
+
+    @Override
+    public int getLink(int node) {
+        return (int) intHandle.get(chunks[node >>> CHUNK_BITS], offset(node) + LINK);
+    }
+
+    @Override
+    public void setProof(int node, int proof) {
+        intHandle.setVolatile(chunks[node >>> CHUNK_BITS], offset(node) + PROOF, proof);
+    }
+
+    @Override
+    public int getProof(int node) {
+        return (int) intHandle.getVolatile(chunks[node >>> CHUNK_BITS], offset(node) + PROOF);
+    }
+
+    @Override
+    public State getRootState() {
+        return rootState;
+    }
+
+    // Where the node's record starts in its chunk
+    private static int offset(int node) {
+        return (node & CHUNK_MASK) * NODE_BYTES;
+    }
+}
@@ -0,0 +1,35 @@
+package search;
+
+/**
+ * PUCT, as used by AlphaZero: the child's average reward plus an exploration term proportional to its prior, so moves
+ * that look likely to be good (captures and promotions, see CapturePlayoutPolicy) are tried first and most. A child
+ * that hasn't been visited is assumed to be a bit worse than its parent, by the first play urgency reduction, so the
+ * search only moves on to untried moves once the tried ones start looking bad.
+ */
+public class PUCTSelectionPolicy implements SelectionPolicy {
+    private final double explorationConstant;
+    private final double firstPlayUrgencyReduction;
+
+    public PUCTSelectionPolicy() {
+        this(1.5, 0.2);
+    }
+
+    public PUCTSelectionPolicy(double explorationConstant, double firstPlayUrgencyReduction) {
+        if (explorationConstant < 0) {
+            throw new IllegalArgumentException("explorationConstant can't be negative");
+        }
+        this.explorationConstant = explorationConstant;
+        this.firstPlayUrgencyReduction = firstPlayUrgencyReduction;
+    }
+
+    @Override
+    public double value(double mean, int visits, int parentVisits, double prior, double parentMean) {
+        double expectedMean = visits == 0 ? parentMean - firstPlayUrgencyReduction : mean;
+        return expectedMean + explorationConstant * prior * Math.sqrt(parentVisits) / (1 + visits);
+    }
+
+    @Override
+    public boolean usesPriors() {
+        return true;
+    }
+}
@@ -0,0 +1,11 @@
+package search;
+
+/**
+ * How the threads of an MCTS search share the work
+ */
+public enum ParallelMode {
+    // Every thread searches the same tree
+    TREE,
+    // Each thread searches its own tree from the same root, and the trees' root visits are added up at the end
+    ROOT
+}
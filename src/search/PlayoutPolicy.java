@@ -0,0 +1,12 @@
+package search;
+
+import chessboard.State;
+
+/**
+ * Chooses the moves of the playouts run from new leaves of the search tree. The same policy is used by every search
+ * thread at once, so it mustn't keep any state of its own.
+ */
+public interface PlayoutPolicy {
+    // Returns one of the state's legal moves (see State.getLegalMove). The game must still be in progress.
+    int chooseMove(State state);
+}
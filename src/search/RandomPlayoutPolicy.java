@@ -0,0 +1,13 @@
+package search;
+
+import chessboard.State;
+
+/**
+ * Chooses every legal move with the same chance.
+ */
+public class RandomPlayoutPolicy implements PlayoutPolicy {
+    @Override
+    public int chooseMove(State state) {
+        return state.getLegalMove(SearchRandom.nextInt(0, state.getLegalMoveCount()));
+    }
+}
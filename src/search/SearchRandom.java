@@ -0,0 +1,40 @@
+package search;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random numbers for the search and its playouts. Every thread has its own generator, so threads never wait on each
+ * other for a number and getting one allocates nothing.
+ *
+ * The generators are seeded differently every run unless a search is given a seed (see SearchSettings.setSeed). Then
+ * each search thread is reseeded when it starts. A search with one thread and one playout per leaf can then be repeated
+ * exactly, as long as it's stopped by a number of iterations (see SearchSettings.setMaxIterations) rather than by the
+ * clock, so with smart stop off and a time limit it doesn't reach. Playouts run on the common fork join pool aren't
+ * reseeded.
+ */
+public final class SearchRandom {
+    private static final ThreadLocal<SplittableRandom> generators = ThreadLocal.withInitial(SplittableRandom::new);
+
+    private SearchRandom() {
+    }
+
+    // Reseeds this thread's generator
+    public static void setSeed(long seed) {
+        generators.set(new SplittableRandom(seed));
+    }
+
+    /**
+     * Generates a random int from min to max (inclusive min, exclusive max)
+     *
+     * @param min the lower bound of the random range (inclusive)
+     * @param max the upper bound of the random range (exclusive)
+     *
+     * @return the random number
+     */
+    public static int nextInt(int min, int max) {
+        if (min >= max) {
+            throw new IllegalArgumentException("max must be greater than min");
+        }
+        return generators.get().nextInt(min, max);
+    }
+}
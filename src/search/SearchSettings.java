@@ -0,0 +1,231 @@
+package search;
+
+import java.nio.file.Path;
+
+/**
+ * Settings for an MCTS search. Anything that isn't set keeps its default.
+ */
+public class SearchSettings {
+    // Number of threads searching at once
+    private int threads = 1;
+
+    private ParallelMode parallelMode = ParallelMode.TREE;
+
+    // Number of playouts run at once from each new leaf. More than one runs them in parallel on the common fork join
+    // pool and backpropagates their total in one pass.
+    private int playoutsPerLeaf = 1;
+
+    // Whether to stop searching early once the most visited move at the root can't be overtaken in the time left
+    private boolean smartStop = true;
+
+    // Whether to put each node's children in order of how promising their moves look (see MoveOrdering), and only let
+    // selection choose from the first few, with more let in as the node is visited more
+    private boolean progressiveWidening = false;
+
+    // How the child to search next is chosen at each node
+    private SelectionPolicy selectionPolicy = new UCB1SelectionPolicy();
+
+    // How many visits a child needs before its own results count as much as its all-moves-as-first results (RAVE, see
+    // MCTS.updateAmaf). 0 to not use them.
+    private int raveEquivalence = 0;
+
+    // How the moves of each playout are chosen
+    private PlayoutPolicy playoutPolicy = new CapturePlayoutPolicy();
+
+    // The most moves to play in each playout before scoring the position with its static evaluation instead of playing
+    // on to the end of the game. 0 for no limit.
+    private int playoutDepth = 0;
+
+    // Whether to keep the tree outside the Java heap (see OffHeapNodePool)
+    private boolean offHeapTree = false;
+
+    // A file to map the tree to, so its size is limited by disk rather than memory (see OffHeapNodePool). Setting it
+    // keeps the tree off the heap. With ParallelMode.ROOT, each other tree goes in a file next to it with the tree's
+    // number added to the name. Null to keep an off-heap tree in a temporary file.
+    private Path treeFile = null;
+
+    // The most nodes to keep in the tree, shared between the trees when searching with ParallelMode.ROOT. When the
+    // tree gets bigger than this, its least visited subtrees are pruned. 0 for no limit.
+    private int maxNodes = 0;
+
+    // Number of entries in the transposition table, which lets positions reached by different orders of moves share
+    // their stats (see TranspositionTable). Shared between the trees when searching with ParallelMode.ROOT. 0 to turn
+    // it off.
+    private int transpositionTableSize = 1 << 20;
+
+    // Seeds the search's random numbers so it can be repeated (see SearchRandom), or null for a different search every
+    // time
+    private Long seed = null;
+
+    // The most iterations each search runs, shared between the threads, or 0 for no limit. A search still stops when
+    // its time is up, so only a search that's limited by this rather than by the clock runs the same number of
+    // iterations every time.
+    private int maxIterations = 0;
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public ParallelMode getParallelMode() {
+        return parallelMode;
+    }
+
+    public int getPlayoutsPerLeaf() {
+        return playoutsPerLeaf;
+    }
+
+    public boolean isSmartStop() {
+        return smartStop;
+    }
+
+    public boolean isProgressiveWidening() {
+        return progressiveWidening;
+    }
+
+    public SelectionPolicy getSelectionPolicy() {
+        return selectionPolicy;
+    }
+
+    public int getRaveEquivalence() {
+        return raveEquivalence;
+    }
+
+    public PlayoutPolicy getPlayoutPolicy() {
+        return playoutPolicy;
+    }
+
+    public int getPlayoutDepth() {
+        return playoutDepth;
+    }
+
+    public boolean isOffHeapTree() {
+        return offHeapTree;
+    }
+
+    public Path getTreeFile() {
+        return treeFile;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    public int getTranspositionTableSize() {
+        return transpositionTableSize;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public SearchSettings setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    public SearchSettings setParallelMode(ParallelMode parallelMode) {
+        this.parallelMode = parallelMode;
+        return this;
+    }
+
+    public SearchSettings setPlayoutsPerLeaf(int playoutsPerLeaf) {
+        if (playoutsPerLeaf < 1) {
+            throw new IllegalArgumentException("playoutsPerLeaf must be at least 1");
+        }
+        this.playoutsPerLeaf = playoutsPerLeaf;
+        return this;
+    }
+
+    public SearchSettings setSmartStop(boolean smartStop) {
+        this.smartStop = smartStop;
+        return this;
+    }
+
+    public SearchSettings setProgressiveWidening(boolean progressiveWidening) {
+        this.progressiveWidening = progressiveWidening;
+        return this;
+    }
+
+    public SearchSettings setSelectionPolicy(SelectionPolicy selectionPolicy) {
+        if (selectionPolicy == null) {
+            throw new IllegalArgumentException("selectionPolicy can't be null");
+        }
+        this.selectionPolicy = selectionPolicy;
+        return this;
+    }
+
+    public SearchSettings setRaveEquivalence(int raveEquivalence) {
+        if (raveEquivalence < 0) {
+            throw new IllegalArgumentException("raveEquivalence can't be negative");
+        }
+        this.raveEquivalence = raveEquivalence;
+        return this;
+    }
+
+    public SearchSettings setPlayoutPolicy(PlayoutPolicy playoutPolicy) {
+        if (playoutPolicy == null) {
+            throw new IllegalArgumentException("playoutPolicy can't be null");
+        }
+        this.playoutPolicy = playoutPolicy;
+        return this;
+    }
+
+    public SearchSettings setPlayoutDepth(int playoutDepth) {
+        if (playoutDepth < 0) {
+            throw new IllegalArgumentException("playoutDepth can't be negative");
+        }
+        this.playoutDepth = playoutDepth;
+        return this;
+    }
+
+    public SearchSettings setOffHeapTree(boolean offHeapTree) {
+        this.offHeapTree = offHeapTree;
+        return this;
+    }
+
+    public SearchSettings setTreeFile(Path treeFile) {
+        this.treeFile = treeFile;
+        return this;
+    }
+
+    public SearchSettings setMaxNodes(int maxNodes) {
+        if (maxNodes < 0) {
+            throw new IllegalArgumentException("maxNodes can't be negative");
+        }
+        this.maxNodes = maxNodes;
+        return this;
+    }
+
+    public SearchSettings setTranspositionTableSize(int transpositionTableSize) {
+        if (transpositionTableSize < 0 || transpositionTableSize > 1 << 30) {
+            throw new IllegalArgumentException("transpositionTableSize must be from 0 to 2^30");
+        }
+        this.transpositionTableSize = transpositionTableSize;
+        return this;
+    }
+
+    public SearchSettings setSeed(Long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public SearchSettings setMaxIterations(int maxIterations) {
+        if (maxIterations < 0) {
+            throw new IllegalArgumentException("maxIterations can't be negative");
+        }
+        this.maxIterations = maxIterations;
+        return this;
+    }
+
+    // Sets the node limit from a rough memory budget for the tree
+    public SearchSettings setMaxTreeBytes(long maxTreeBytes) {
+        return setMaxNodes((int) Math.min(Integer.MAX_VALUE, maxTreeBytes / NodePool.NODE_BYTES));
+    }
+}
@@ -0,0 +1,28 @@
+package search;
+
+/**
+ * Scores the children of a node during selection, and the child with the highest score is searched next. The same
+ * policy is used by every search thread at once, so it mustn't keep any state of its own.
+ */
+public interface SelectionPolicy {
+    /**
+     * How good searching a child looks to the player choosing between it and its siblings.
+     *
+     * @param mean the child's average reward from the chooser's point of view, from 0 to 1. Only meaningful if the
+     *             child has been visited.
+     * @param visits the number of times the child has been chosen, which may be 0.
+     * @param parentVisits the number of times the parent has been visited.
+     * @param prior how likely the child's move looked before searching it, from 0 to 1 over all the siblings. Always 0
+     *              unless usesPriors is true.
+     * @param parentMean the parent's average reward from the chooser's point of view, for estimating children that
+     *                   haven't been visited yet (first play urgency).
+     *
+     * @return the score.
+     */
+    double value(double mean, int visits, int parentVisits, double prior, double parentMean);
+
+    // Whether value needs the children's priors, which take longer to work out
+    default boolean usesPriors() {
+        return false;
+    }
+}
@@ -0,0 +1,144 @@
+package search;
+
+/**
+ * Decides how long a search should run. A search aims to stop at the soft limit, and never runs past the hard limit.
+ * When the time comes from a clock, the soft limit moves with how settled the search is: it's cut short if the best
+ * move has stayed the same for most of the search, and extended towards the hard limit if the best move has just
+ * changed.
+ *
+ * A time manager is used for one search at a time. MCTS starts it at the beginning of the search, and then only the
+ * first search thread reports the best move to it.
+ */
+public class TimeManager {
+    // Assumed number of moves left to make in the time, if it isn't known
+    private static final int DEFAULT_MOVES_TO_GO = 30;
+
+    // Kept back from the remaining time, for the time taken to send the move
+    private static final long MOVE_OVERHEAD_MILLIS = 50;
+
+    // How much of the increment to spend on each move as well as its share of the remaining time
+    private static final double INCREMENT_SHARE = 0.75;
+
+    // The hard limit is this many times the soft limit, but at most this share of the remaining time
+    private static final double HARD_LIMIT_FACTOR = 3;
+    private static final double MAX_REMAINING_SHARE = 0.25;
+
+    // The best move is stable if it hasn't changed for this share of the search so far, and then the search stops at
+    // this fraction of the soft limit
+    private static final double STABLE_SHARE = 0.8;
+    private static final double STABLE_FACTOR = 0.6;
+
+    // The best move is unstable if it changed in this last share of the search so far, and then the search can go on
+    // to this many times the soft limit
+    private static final double UNSTABLE_SHARE = 0.25;
+    private static final double UNSTABLE_FACTOR = 2;
+
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
+    private final long softLimitNanos;
+    private final long hardLimitNanos;
+
+    // Whether the soft limit moves with the best move's stability. A fixed time per move doesn't.
+    private final boolean adjustable;
+
+    private long startTime;
+    private int bestMove;
+    // Read by every search thread for the smart stop, but only written by the first
+    private volatile long bestMoveChangeTime;
+
+    private TimeManager(long softLimitNanos, long hardLimitNanos, boolean adjustable) {
+        this.softLimitNanos = softLimitNanos;
+        this.hardLimitNanos = hardLimitNanos;
+        this.adjustable = adjustable;
+    }
+
+    /**
+     * Plans a search that takes its share of the time left on a clock.
+     *
+     * @param remainingMillis the time left on our clock.
+     * @param incrementMillis the time added to our clock after each move.
+     * @param movesToGo the number of moves to make before more time is added, or 0 if it isn't known.
+     *
+     * @return the time manager.
+     */
+    public static TimeManager forClock(long remainingMillis, long incrementMillis, int movesToGo) {
+        return forClock(remainingMillis, incrementMillis, movesToGo, 0);
+    }
+
+    /**
+     * Plans a search that takes its share of the time left on a clock, but never more than a set time.
+     *
+     * @param remainingMillis the time left on our clock.
+     * @param incrementMillis the time added to our clock after each move.
+     * @param movesToGo the number of moves to make before more time is added, or 0 if it isn't known.
+     * @param maxMillis the most time the search can take, or 0 for no limit other than the clock's.
+     *
+     * @return the time manager.
+     */
+    public static TimeManager forClock(long remainingMillis, long incrementMillis, int movesToGo, long maxMillis) {
+        if (remainingMillis < 0 || incrementMillis < 0 || movesToGo < 0 || maxMillis < 0) {
+            throw new IllegalArgumentException("Times and moves to go can't be negative");
+        }
+        long available = Math.max(0, remainingMillis - MOVE_OVERHEAD_MILLIS);
+        int moves = movesToGo == 0 ? DEFAULT_MOVES_TO_GO : movesToGo;
+        long hardLimit = (long) (available * MAX_REMAINING_SHARE);
+        if (maxMillis != 0) {
+            hardLimit = Math.min(hardLimit, maxMillis);
+        }
+        long softLimit = Math.min(hardLimit, available / moves + (long) (incrementMillis * INCREMENT_SHARE));
+        hardLimit = Math.min(hardLimit, (long) (softLimit * HARD_LIMIT_FACTOR));
+        return new TimeManager(softLimit * NANOS_PER_MILLI, hardLimit * NANOS_PER_MILLI, true);
+    }
+
+    // Plans a search that always takes the same time
+    public static TimeManager fixed(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Time can't be negative");
+        }
+        return new TimeManager(millis * NANOS_PER_MILLI, millis * NANOS_PER_MILLI, false);
+    }
+
+    // Called when a search starts, at the System.nanoTime now
+    void start(long now) {
+        startTime = now;
+        bestMove = 0;
+        bestMoveChangeTime = startTime;
+    }
+
+    // The System.nanoTime the search must stop by
+    long getHardEndTime() {
+        return startTime + hardLimitNanos;
+    }
+
+    // The System.nanoTime the search is aiming to stop by, given how stable the best move has been so far
+    long getEndTime(long now) {
+        if (!adjustable) {
+            return startTime + softLimitNanos;
+        }
+        long searched = now - startTime;
+        long sinceChange = now - bestMoveChangeTime;
+        double factor = 1;
+        if (sinceChange >= searched * STABLE_SHARE) {
+            factor = STABLE_FACTOR;
+        } else if (sinceChange <= searched * UNSTABLE_SHARE) {
+            factor = UNSTABLE_FACTOR;
+        }
+        return startTime + Math.min(hardLimitNanos, (long) (softLimitNanos * factor));
+    }
+
+    /**
+     * Records the current best move and decides whether to stop.
+     *
+     * @param now the current System.nanoTime.
+     * @param currentBestMove the current best move at the root, packed into an int (see chessboard.Move.pack).
+     *
+     * @return true if the search should stop now.
+     */
+    boolean shouldStop(long now, int currentBestMove) {
+        if (currentBestMove != bestMove) {
+            bestMove = currentBestMove;
+            bestMoveChangeTime = now;
+        }
+        return now >= getEndTime(now);
+    }
+}
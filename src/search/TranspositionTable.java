@@ -0,0 +1,72 @@
+package search;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Finds the node already in a tree for a position, so a position reached by different orders of moves can share one
+ * node's stats and children (see MCTS.findTransposition). Maps the Zobrist key of each expanded node's position to the
+ * node.
+ *
+ * It's a fixed size hash table, and an entry is overwritten when there's no room for a new one near it. Entries aren't
+ * removed when their nodes are freed, so a node returned by get must have its key checked in the tree before it's used.
+ * Several threads can use it at once without locking.
+ */
+class TranspositionTable {
+    // How many slots from a key's own slot onwards it can go in
+    private static final int PROBES = 4;
+
+    // 0 for an empty slot
+    private final AtomicLongArray keys;
+    private final AtomicIntegerArray nodes;
+    private final int mask;
+
+    // The capacity is rounded up to a power of two
+    TranspositionTable(int capacity) {
+        int size = PROBES;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        keys = new AtomicLongArray(size);
+        nodes = new AtomicIntegerArray(size);
+        mask = size - 1;
+    }
+
+    // Empties the table, so it can be used for another tree. Must only be called while no other thread is using it.
+    void clear() {
+        for (int i = 0; i <= mask; i++) {
+            keys.set(i, 0);
+            nodes.set(i, 0);
+        }
+    }
+
+    // The node stored for the key, or -1 if there isn't one
+    int get(long key) {
+        int slot = (int) key & mask;
+        for (int i = 0; i < PROBES; i++) {
+            int probe = (slot + i) & mask;
+            if (keys.get(probe) == key) {
+                return nodes.get(probe);
+            }
+        }
+        return -1;
+    }
+
+    // Stores the node for the key, replacing the key's old node if it has one. If all the key's slots are taken by
+    // other keys, the one in its own slot is replaced.
+    void put(long key, int node) {
+        int slot = (int) key & mask;
+        int target = slot;
+        for (int i = 0; i < PROBES; i++) {
+            int probe = (slot + i) & mask;
+            long probeKey = keys.get(probe);
+            if (probeKey == key || probeKey == 0) {
+                target = probe;
+                break;
+            }
+        }
+        // The key goes last, so a thread that finds the key also finds its node, unless another put races with this one
+        nodes.set(target, node);
+        keys.set(target, key);
+    }
+}
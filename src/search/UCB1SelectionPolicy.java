@@ -0,0 +1,31 @@
+package search;
+
+/**
+ * The UCB1 formula: the child's average reward plus an exploration term that shrinks as it's visited more. A child
+ * that hasn't been visited scores the first play urgency, which is infinite by default so every child is visited once
+ * before any is visited twice. A lower urgency lets the search go deeper into good moves before trying every move.
+ */
+public class UCB1SelectionPolicy implements SelectionPolicy {
+    private final double explorationConstant;
+    private final double firstPlayUrgency;
+
+    public UCB1SelectionPolicy() {
+        this(Math.sqrt(2), Double.POSITIVE_INFINITY);
+    }
+
+    public UCB1SelectionPolicy(double explorationConstant, double firstPlayUrgency) {
+        if (explorationConstant < 0) {
+            throw new IllegalArgumentException("explorationConstant can't be negative");
+        }
+        this.explorationConstant = explorationConstant;
+        this.firstPlayUrgency = firstPlayUrgency;
+    }
+
+    @Override
+    public double value(double mean, int visits, int parentVisits, double prior, double parentMean) {
+        if (visits == 0) {
+            return firstPlayUrgency;
+        }
+        return mean + explorationConstant * Math.sqrt(Math.log(parentVisits) / visits);
+    }
+}
@@ -0,0 +1,32 @@
+package search;
+
+/**
+ * UCB1-Tuned: like UCB1, but the exploration term is scaled by an upper bound on the variance of the child's rewards,
+ * so children whose results hardly vary are explored less. The rewards' squares aren't stored, but since every reward
+ * is from 0 to 1, the mean of the squares is at most the mean, which gives a slightly higher bound on the variance.
+ * Unvisited children score the first play urgency, as in UCB1SelectionPolicy.
+ */
+public class UCB1TunedSelectionPolicy implements SelectionPolicy {
+    // The most the variance of a reward from 0 to 1 can be
+    private static final double MAX_VARIANCE = 0.25;
+
+    private final double firstPlayUrgency;
+
+    public UCB1TunedSelectionPolicy() {
+        this(Double.POSITIVE_INFINITY);
+    }
+
+    public UCB1TunedSelectionPolicy(double firstPlayUrgency) {
+        this.firstPlayUrgency = firstPlayUrgency;
+    }
+
+    @Override
+    public double value(double mean, int visits, int parentVisits, double prior, double parentMean) {
+        if (visits == 0) {
+            return firstPlayUrgency;
+        }
+        double logParentVisits = Math.log(parentVisits);
+        double varianceBound = mean - mean * mean + Math.sqrt(2 * logParentVisits / visits);
+        return mean + Math.sqrt(logParentVisits / visits * Math.min(MAX_VARIANCE, varianceBound));
+    }
+}
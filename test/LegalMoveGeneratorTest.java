@@ -56,4 +56,39 @@ public class LegalMoveGeneratorTest {
             System.out.println("Total Nps: " + ((double)totalNodes / (double)(System.currentTimeMillis() - startTime) * 1000));
         }
     }
+
+    // Kiwipete, full of castling, pins and promotions. Both sides can still castle either way.
+    @Test
+    public void perftTestKiwipete() throws InvalidBoardPositionException {
+        State state = TestPositions.fromFen("r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R", PlayerColour.WHITE);
+        int [] perftActuals = {48, 2039, 97862};
+
+        for (int i = 0; i < perftActuals.length; i++) {
+            assertEquals(perftActuals[i], perft(state, i + 1));
+        }
+    }
+
+    // After e2-e4 or g2-g4 the f4 pawn can take en passant, but not always: taking can uncover the rook on h5 along
+    // the king's rank.
+    @Test
+    public void perftTestEnPassantDiscoveredCheck() throws InvalidBoardPositionException {
+        State state = TestPositions.fromFen("8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8", PlayerColour.WHITE);
+        int [] perftActuals = {14, 191, 2812, 43238};
+
+        for (int i = 0; i < perftActuals.length; i++) {
+            assertEquals(perftActuals[i], perft(state, i + 1));
+        }
+    }
+
+    // The number of positions reachable after exactly depth moves
+    private static long perft(State state, int depth) {
+        if (depth == 0) {
+            return 1;
+        }
+        long nodes = 0;
+        for (Move move: state.getAllLegalMoves()) {
+            nodes += perft(state.executeMove(move), depth - 1);
+        }
+        return nodes;
+    }
 }
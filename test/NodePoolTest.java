@@ -0,0 +1,71 @@
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+import chessboard.*;
+import search.*;
+
+import java.io.IOException;
+
+public class NodePoolTest {
+
+    // Builds root -> nodes 1 to 3, each with two children, frees node 1's children and compacts. Node 6 is linked to
+    // node 8 and node 7 to one of the freed nodes.
+    private static void checkCompact(NodePool pool) {
+        int firstChild = addChildren(pool, NodePool.ROOT, 3);
+        for (int child = firstChild; child < firstChild + 3; child++) {
+            addChildren(pool, child, 2);
+        }
+        for (int node = 1; node < 10; node++) {
+            pool.addVisits(node, node * 10);
+            pool.setMove(node, node);
+        }
+        pool.setKey(8, 88);
+        pool.setKey(6, 88);
+        pool.setLink(6, 8);
+        pool.setLink(7, 4);
+        pool.clearChildren(1);
+        pool.free(4, 2);
+
+        pool.compact();
+        assertEquals(8, pool.getNodeCount());
+        assertEquals(8, pool.getSize());
+        assertEquals(0, pool.getChildCount(1));
+        assertEquals(4, pool.getFirstChild(2));
+        assertEquals(6, pool.getFirstChild(3));
+        // Each node kept its own stats in its new place
+        int[] oldNodes = {0, 1, 2, 3, 6, 7, 8, 9};
+        for (int node = 1; node < 8; node++) {
+            assertEquals(oldNodes[node] * 10, pool.getVisits(node));
+            assertEquals(oldNodes[node], pool.getMove(node));
+        }
+        assertEquals(6, pool.getLink(4));
+        assertEquals(88, pool.getKey(4));
+        assertEquals(0, pool.getLink(5));
+
+        // New nodes go straight after the compacted ones, and start out cleared
+        int next = pool.allocate(2);
+        assertEquals(8, next);
+        assertEquals(0, pool.getVisits(next));
+        assertEquals(0, pool.getVisits(next + 1));
+    }
+
+    private static int addChildren(NodePool pool, int node, int count) {
+        int firstChild = pool.allocate(count);
+        pool.claimExpansion(node);
+        pool.setChildren(node, firstChild, count);
+        return firstChild;
+    }
+
+    @Test
+    public void heapPoolCompacts() {
+        checkCompact(new HeapNodePool(new State()));
+    }
+
+    @Test
+    public void offHeapPoolCompacts() throws IOException {
+        OffHeapNodePool pool = new OffHeapNodePool(new State());
+        checkCompact(pool);
+        pool.close();
+    }
+}
@@ -0,0 +1,125 @@
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+import chessboard.*;
+import search.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class OffHeapNodePoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // A checkpoint loads back with every field of every node, and the loaded pool carries on growing in its file
+    @Test
+    public void checkpointRoundTrip() throws IOException {
+        State state = new State();
+        OffHeapNodePool pool = new OffHeapNodePool(state);
+        int childCount = state.getLegalMoveCount();
+        int firstChild = pool.allocate(childCount);
+        for (int i = 0; i < childCount; i++) {
+            int child = firstChild + i;
+            pool.setMove(child, state.getLegalMove(i));
+            pool.addVisits(child, i + 1);
+            pool.addReward(child, i + 0.25);
+            pool.addAmafResult(child, 2 * i, i + 0.5);
+            pool.setKey(child, 1000L * i);
+            pool.setLink(child, i);
+            pool.setProof(child, i % 3);
+        }
+        pool.claimExpansion(NodePool.ROOT);
+        pool.setChildren(NodePool.ROOT, firstChild, childCount);
+        pool.addVisits(NodePool.ROOT, 210);
+        pool.addReward(NodePool.ROOT, 105.5);
+
+        Path checkpointFile = folder.getRoot().toPath().resolve("checkpoint");
+        pool.checkpoint(checkpointFile);
+        OffHeapNodePool loaded = OffHeapNodePool.load(checkpointFile, state);
+        assertEquals(pool.getNodeCount(), loaded.getNodeCount());
+        assertSameNodes(pool, loaded, NodePool.ROOT, firstChild + childCount);
+
+        // New nodes go after the loaded ones, and are in the file when it's checkpointed in place
+        int grandchild = loaded.allocate(1);
+        assertTrue(grandchild >= firstChild + childCount);
+        loaded.setMove(grandchild, 1234);
+        loaded.addVisits(grandchild, 7);
+        loaded.claimExpansion(firstChild);
+        loaded.setChildren(firstChild, grandchild, 1);
+        loaded.checkpoint(checkpointFile);
+        loaded.close();
+
+        OffHeapNodePool reloaded = OffHeapNodePool.load(checkpointFile, state);
+        assertEquals(pool.getNodeCount() + 1, reloaded.getNodeCount());
+        assertEquals(grandchild, reloaded.getFirstChild(firstChild));
+        assertEquals(1, reloaded.getChildCount(firstChild));
+        assertEquals(1234, reloaded.getMove(grandchild));
+        assertEquals(7, reloaded.getVisits(grandchild));
+        reloaded.close();
+    }
+
+    // A checkpoint can't be loaded for a position it wasn't made from
+    @Test
+    public void checkpointForOtherPositionIsRefused() throws IOException, InvalidMoveException {
+        State state = new State();
+        Path checkpointFile = folder.getRoot().toPath().resolve("checkpoint");
+        new OffHeapNodePool(state).checkpoint(checkpointFile);
+
+        State otherState = state.executeMove(state.getMoveFromString("e2e4"));
+        try {
+            OffHeapNodePool.load(checkpointFile, otherState);
+            fail("Loaded a checkpoint for a different position");
+        } catch (IOException e) {
+            assertEquals("Checkpoint is for a different position", e.getMessage());
+        }
+        OffHeapNodePool.load(checkpointFile, state).close();
+    }
+
+    // A search with a tree file keeps its tree in files after moving on, taking turns between the two files
+    @Test
+    public void playMoveKeepsTreeInFile() throws IOException {
+        Path treeFile = folder.getRoot().toPath().resolve("tree");
+        SearchSettings settings = new SearchSettings().setThreads(1).setSmartStop(false).setTreeFile(treeFile);
+        MCTS search = new MCTS(new State(), 200, PlayerColour.WHITE, settings);
+        assertTrue(Files.exists(treeFile));
+
+        Move bestMove = search.getBestMove();
+        search.playMove(bestMove);
+        Path nextTreeFile = folder.getRoot().toPath().resolve("tree.next");
+        assertTrue(Files.size(nextTreeFile) > 0);
+
+        // Only a tree off the heap can be checkpointed, and the searched move's visits came with it
+        Path checkpointFile = folder.getRoot().toPath().resolve("checkpoint");
+        search.checkpoint(checkpointFile);
+        State newRootState = new State().executeMove(bestMove);
+        OffHeapNodePool loaded = OffHeapNodePool.load(checkpointFile, newRootState);
+        assertTrue(loaded.getVisits(NodePool.ROOT) > 0);
+        loaded.close();
+
+        // The next tree goes back in the first file, which is checkpointed where it is
+        Move reply = search.getBestMove();
+        search.playMove(reply);
+        search.checkpoint(treeFile);
+        OffHeapNodePool.load(treeFile, newRootState.executeMove(reply)).close();
+    }
+
+    // Checks every field of nodes from first up to end is the same in both pools
+    private static void assertSameNodes(NodePool expected, NodePool actual, int first, int end) {
+        for (int node = first; node < end; node++) {
+            assertEquals(expected.getVisits(node), actual.getVisits(node));
+            assertEquals(expected.getReward(node), actual.getReward(node), 0);
+            assertEquals(expected.getChildCount(node), actual.getChildCount(node));
+            assertEquals(expected.getFirstChild(node), actual.getFirstChild(node));
+            assertEquals(expected.getMove(node), actual.getMove(node));
+            assertEquals(expected.getKey(node), actual.getKey(node));
+            assertEquals(expected.getLink(node), actual.getLink(node));
+            assertEquals(expected.getProof(node), actual.getProof(node));
+            assertEquals(expected.getAmafVisits(node), actual.getAmafVisits(node));
+            assertEquals(expected.getAmafReward(node), actual.getAmafReward(node), 0);
+        }
+    }
+}
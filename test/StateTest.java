@@ -0,0 +1,106 @@
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+import chessboard.*;
+
+public class StateTest {
+
+    // Plays a list of moves in the format Main reads them in
+    private static State playMoves(State state, String... moves) throws InvalidMoveException {
+        for (String move: moves) {
+            state = state.executeMove(state.getMoveFromString(move));
+        }
+        return state;
+    }
+
+    // Moving the knights out and back twice reaches the start position for the third time
+    @Test
+    public void threefoldRepetitionIsDraw() throws InvalidMoveException {
+        State state = playMoves(new State(), "g1f3", "g8f6", "f3g1");
+        assertFalse(state.isRepeatedPosition());
+
+        state = playMoves(state, "f6g8");
+        assertEquals(State.IN_PROGRESS, state.getGameStatus());
+        assertEquals(new State().getHash(), state.getHash());
+        assertTrue(state.isRepeatedPosition());
+
+        state = playMoves(state, "g1f3", "g8f6", "f3g1");
+        assertEquals(State.IN_PROGRESS, state.getGameStatus());
+
+        state = playMoves(state, "f6g8");
+        assertEquals(State.DRAW, state.getGameStatus());
+    }
+
+    // The same pieces on the same squares, but with the king having moved, is a different position
+    @Test
+    public void lostCastlingRightsChangeHash() throws InvalidMoveException {
+        State kingMoved = playMoves(new State(), "e2e4", "e7e5", "e1e2", "e8e7", "e2e1", "e7e8");
+        State kingStayed = playMoves(new State(), "e2e4", "e7e5", "g1f3", "g8f6", "f3g1", "f6g8");
+        assertTrue(kingMoved.getBoard().sameBoard(kingStayed.getBoard()));
+        assertNotEquals(kingMoved.getHash(), kingStayed.getHash());
+    }
+
+    // Unmaking moves, including captures and castling, restores the position exactly
+    @Test
+    public void unmakeMoveRestoresState() throws InvalidMoveException {
+        State state = new State();
+        String[] moves = {"e2e4", "d7d5", "e4d5", "g8f6", "g1f3", "f6d5", "f1c4", "c7c5", "O-O", "d5c3", "b2c3"};
+        for (String move: moves) {
+            state.makeMove(state.getMoveFromString(move));
+        }
+        assertEquals(moves.length, state.getMoveList().size());
+
+        for (int i = 0; i < moves.length; i++) {
+            state.unmakeMove();
+        }
+        State startState = new State();
+        assertTrue(state.getBoard().sameBoard(startState.getBoard()));
+        assertEquals(startState.getHash(), state.getHash());
+        assertEquals(PlayerColour.WHITE, state.getTurn());
+        assertEquals(startState.getAllLegalMoves().size(), state.getAllLegalMoves().size());
+    }
+
+    // The evaluation is level at the start, follows captures, and is restored by unmaking them
+    @Test
+    public void evaluationFollowsMoves() throws InvalidMoveException {
+        State state = playMoves(new State(), "e2e4", "d7d5");
+        assertEquals(0, new State().getBoard().getEvaluation());
+
+        int beforeCapture = state.getBoard().getEvaluation();
+        state.makeMove(state.getMoveFromString("e4d5"));
+        assertTrue(state.getBoard().getEvaluation() - beforeCapture >= 50);
+
+        state.unmakeMove();
+        assertEquals(beforeCapture, state.getBoard().getEvaluation());
+    }
+
+    // makeMove ends up in the same position as executeMove
+    @Test
+    public void makeMoveMatchesExecuteMove() throws InvalidMoveException {
+        State executed = new State();
+        State made = new State();
+        for (String move: new String[] {"e2e4", "e7e5", "g1f3", "b8c6", "f1b5", "a7a6", "b5c6"}) {
+            executed = executed.executeMove(executed.getMoveFromString(move));
+            made.makeMove(made.getMoveFromString(move));
+        }
+        assertTrue(made.getBoard().sameBoard(executed.getBoard()));
+        assertEquals(executed.getHash(), made.getHash());
+        assertEquals(executed.getAllLegalMoves().size(), made.getAllLegalMoves().size());
+    }
+
+    // En passant and promotions can be read in, and packing a move keeps everything about it
+    @Test
+    public void specialMovesFromString() throws InvalidMoveException {
+        State state = playMoves(new State(), "e2e4", "a7a6", "e4e5", "d7d5");
+        Move enPassant = state.getMoveFromString("e5d6");
+        assertEquals("En passant", enPassant.getSpecialMove());
+        assertEquals(enPassant, Move.fromPacked(enPassant.toPacked()));
+
+        state = playMoves(state, "e5d6", "a6a5", "d6c7", "a5a4");
+        Move promotion = state.getMoveFromString("c7b8N");
+        assertEquals(Piece.KNIGHT, promotion.getPromotionTo().getPiece());
+        assertTrue(promotion.isTaking());
+        assertEquals("c7xb8=N", Move.fromPacked(promotion.toPacked()).toString());
+    }
+}
@@ -0,0 +1,36 @@
+package chessboard;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Positions for the tests to start from
+public class TestPositions {
+
+    // Builds a state from the piece placement part of a FEN string
+    public static State fromFen(String fen, PlayerColour turn) throws InvalidBoardPositionException {
+        HashMap<BoardPosition, ColouredPiece> boardMap = new HashMap<>();
+        String[] rows = fen.split("/");
+        for (int row = 0; row < 8; row++) {
+            int column = 0;
+            for (char c: rows[7 - row].toCharArray()) {
+                if (Character.isDigit(c)) {
+                    column += c - '0';
+                    continue;
+                }
+                PlayerColour colour = Character.isUpperCase(c) ? PlayerColour.WHITE : PlayerColour.BLACK;
+                Piece piece = Piece.KING;
+                for (Piece p: Piece.values()) {
+                    if (p != Piece.PAWN && p.firstLetter.equalsIgnoreCase(Character.toString(c))) {
+                        piece = p;
+                    }
+                }
+                if (Character.toLowerCase(c) == 'p') {
+                    piece = Piece.PAWN;
+                }
+                boardMap.put(new BoardPosition(column, row), ColouredPiece.get(piece, colour));
+                column++;
+            }
+        }
+        return new State(new Board(boardMap), turn, new ArrayList<>());
+    }
+}
@@ -0,0 +1,278 @@
+package search;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+import chessboard.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+
+public class MCTSTest {
+
+    // Under a node budget the tree is pruned and compacted whenever it goes over, so each thread can only take the pool
+    // one expansion past the budget, give or take the end of a chunk
+    @Test
+    public void nodeBudgetIsKept() {
+        int maxNodes = 1000;
+        int threads = 2;
+        HeapNodePool tree = new HeapNodePool(new State());
+        // Short playouts, so the search gets through plenty of iterations
+        SearchSettings settings = new SearchSettings().setThreads(threads).setSmartStop(false).setMaxNodes(maxNodes)
+                .setPlayoutDepth(4);
+        new MCTS(tree, 1000, PlayerColour.WHITE, settings).getBestMove();
+
+        // Far more iterations than the budget would have nodes, so the tree has been pruned
+        assertTrue(tree.getVisits(NodePool.ROOT) > maxNodes);
+        assertTrue(tree.getNodeCount() <= maxNodes + threads * MoveList.MAX_LEGAL_MOVES);
+        assertTrue(tree.getSize() <= maxNodes + (threads + 1) * MoveList.MAX_LEGAL_MOVES);
+    }
+
+    // Each iteration runs playoutsPerLeaf playouts from its leaf, so every node on its path gets that many visits and a
+    // result somewhere between 0 and that many wins
+    @Test
+    public void leafGetsPlayoutsPerLeafVisits() {
+        int playouts = 4;
+        HeapNodePool tree = new HeapNodePool(new State());
+        SearchSettings settings = new SearchSettings().setSmartStop(false).setPlayoutsPerLeaf(playouts)
+                .setPlayoutDepth(4).setMaxIterations(1);
+        new MCTS(tree, 60000, PlayerColour.WHITE, settings).getBestMove();
+
+        assertEquals(playouts, tree.getVisits(NodePool.ROOT));
+        int visitedChildren = 0;
+        int firstChild = tree.getFirstChild(NodePool.ROOT);
+        for (int child = firstChild; child < firstChild + tree.getChildCount(NodePool.ROOT); child++) {
+            if (tree.getVisits(child) != 0) {
+                visitedChildren++;
+                assertEquals(playouts, tree.getVisits(child));
+                assertTrue(tree.getReward(child) >= 0 && tree.getReward(child) <= playouts);
+            }
+        }
+        assertEquals(1, visitedChildren);
+        assertTrue(tree.getReward(NodePool.ROOT) >= 0 && tree.getReward(NodePool.ROOT) <= playouts);
+    }
+
+    // Only the children whose move their player went on to make get the result in their AMAF stats, each from the point
+    // of view of the player making it
+    @Test
+    public void amafUpdatesMovesPlayedLater() throws InvalidMoveException {
+        State state = new State();
+        HeapNodePool tree = new HeapNodePool(state.clone());
+        SearchSettings settings = new SearchSettings().setRaveEquivalence(100);
+        MCTS search = new MCTS(tree, 60000, PlayerColour.WHITE, settings);
+
+        int e4 = state.getMoveFromString("e2e4").toPacked();
+        int e4Node = findChild(tree, expand(tree, NodePool.ROOT, state), e4);
+        state.makeMove(e4);
+        int e5 = state.getMoveFromString("e7e5").toPacked();
+        expand(tree, e4Node, state);
+        state.makeMove(e5);
+        int d4 = state.getMoveFromString("d2d4").toPacked();
+
+        MCTS.SearchPath path = new MCTS.SearchPath();
+        path.add(NodePool.ROOT);
+        path.add(e4Node);
+        MCTS.PlayedMoves playedMoves = new MCTS.PlayedMoves();
+        playedMoves.add(e4);
+        playedMoves.add(e5);
+        playedMoves.add(d4);
+        search.updateAmaf(tree, path, playedMoves, 1);
+
+        assertAmaf(tree, NodePool.ROOT, e4, d4);
+        assertAmaf(tree, e4Node, e5);
+    }
+
+    // The AMAF mean counts for less the more visits a child has of its own: a child that always loses but whose move
+    // always wins elsewhere is worth beta = sqrt(k / (3n + k))
+    @Test
+    public void raveBetaFallsWithVisits() {
+        State state = new State();
+        HeapNodePool tree = new HeapNodePool(state.clone());
+        int raveEquivalence = 100;
+        SelectionPolicy meanPolicy = (mean, visits, parentVisits, prior, parentMean) -> mean;
+        SearchSettings settings = new SearchSettings().setRaveEquivalence(raveEquivalence)
+                .setSelectionPolicy(meanPolicy);
+        MCTS search = new MCTS(tree, 60000, PlayerColour.WHITE, settings);
+        int child = expand(tree, NodePool.ROOT, state);
+        tree.addAmafResult(child, 1, 1);
+
+        double lastValue = 1;
+        int visits = 0;
+        for (int target : new int[] {1, 10, 100, 1000}) {
+            tree.addVisits(child, target - visits);
+            visits = target;
+            double value = search.getValue(meanPolicy, tree, child, visits, 0, 0.5);
+            assertEquals(Math.sqrt(raveEquivalence / (3.0 * visits + raveEquivalence)), value, 1e-9);
+            assertTrue(value < lastValue);
+            lastValue = value;
+        }
+    }
+
+    // With ParallelMode.ROOT each thread searches its own tree, and each move's visits are added up over the trees
+    @Test
+    public void rootParallelMergesVisits() {
+        int threads = 3;
+        SearchSettings settings = new SearchSettings().setThreads(threads).setParallelMode(ParallelMode.ROOT)
+                .setSmartStop(false).setPlayoutDepth(4).setMaxIterations(3000);
+        MCTS search = new MCTS(new State(), 60000, PlayerColour.WHITE, settings);
+        Move bestMove = search.getBestMove();
+
+        NodePool[] trees = search.getTrees();
+        assertEquals(threads, trees.length);
+        HashMap<Integer, Integer> visitsByMove = new HashMap<>();
+        for (NodePool tree : trees) {
+            assertEquals(1000, tree.getVisits(NodePool.ROOT));
+            int firstChild = tree.getFirstChild(NodePool.ROOT);
+            for (int child = firstChild; child < firstChild + tree.getChildCount(NodePool.ROOT); child++) {
+                visitsByMove.merge(tree.getMove(child), tree.getVisits(child), Integer::sum);
+            }
+        }
+        int mostVisits = Collections.max(visitsByMove.values());
+
+        MCTS.RootVisits rootVisits = search.getRootVisits();
+        assertEquals(20, rootVisits.moveCount);
+        assertEquals(mostVisits, rootVisits.bestVisits);
+        assertEquals(mostVisits, (int) visitsByMove.get(rootVisits.bestMove));
+        assertEquals(mostVisits, (int) visitsByMove.get(bestMove.toPacked()));
+    }
+
+    // A search thread that fails stops the search, and its exception comes out of getBestMove
+    @Test
+    public void workerExceptionIsPassedOn() {
+        PlayoutPolicy failingPolicy = state -> {
+            if (Thread.currentThread().getName().startsWith("MCTS worker")) {
+                throw new IllegalStateException("Worker failed");
+            }
+            return state.getLegalMove(0);
+        };
+        SearchSettings settings = new SearchSettings().setThreads(2).setSmartStop(false).setPlayoutDepth(4)
+                .setPlayoutPolicy(failingPolicy);
+        MCTS search = new MCTS(new State(), 60000, PlayerColour.WHITE, settings);
+        long startTime = System.currentTimeMillis();
+        try {
+            search.getBestMove();
+            fail("The worker's exception was lost");
+        } catch (IllegalStateException e) {
+            assertEquals("Worker failed", e.getMessage());
+        }
+        assertTrue(System.currentTimeMillis() - startTime < 30000);
+    }
+
+    // With a seed, one thread and an iteration limit, a search can be repeated exactly
+    @Test
+    public void seededSearchRepeats() {
+        HeapNodePool[] trees = new HeapNodePool[2];
+        Move[] bestMoves = new Move[2];
+        for (int i = 0; i < 2; i++) {
+            trees[i] = new HeapNodePool(new State());
+            SearchSettings settings = new SearchSettings().setThreads(1).setSmartStop(false).setPlayoutDepth(8)
+                    .setSeed(42L).setMaxIterations(3000);
+            bestMoves[i] = new MCTS(trees[i], 60000, PlayerColour.WHITE, settings).getBestMove();
+        }
+
+        assertEquals(bestMoves[0], bestMoves[1]);
+        assertEquals(3000, trees[0].getVisits(NodePool.ROOT));
+        assertEquals(3000, trees[1].getVisits(NodePool.ROOT));
+        assertEquals(trees[0].getReward(NodePool.ROOT), trees[1].getReward(NodePool.ROOT), 0);
+        int firstChild = trees[0].getFirstChild(NodePool.ROOT);
+        for (int child = firstChild; child < firstChild + trees[0].getChildCount(NodePool.ROOT); child++) {
+            assertEquals(trees[0].getMove(child), trees[1].getMove(child));
+            assertEquals(trees[0].getVisits(child), trees[1].getVisits(child));
+        }
+    }
+
+    // With only one legal move, which the solver can't prove anything about for a long time, nothing can overtake it,
+    // so smart stop ends the search at its first check
+    @Test
+    public void smartStopEndsSearchWithOnlyOneMove() throws InvalidBoardPositionException, InvalidMoveException {
+        State state = TestPositions.fromFen("k7/8/8/8/1p6/5n1p/1P5P/7K", PlayerColour.WHITE);
+        HeapNodePool tree = new HeapNodePool(state);
+        SearchSettings settings = new SearchSettings().setSmartStop(true);
+        long startTime = System.currentTimeMillis();
+        Move bestMove = new MCTS(tree, 20000, PlayerColour.WHITE, settings).getBestMove();
+
+        assertTrue(System.currentTimeMillis() - startTime < 5000);
+        assertEquals(state.getMoveFromString("b2b3"), bestMove);
+        assertEquals(NodePool.UNPROVEN, tree.getProof(NodePool.ROOT));
+    }
+
+    // The lead can't be bigger than all the visits so far, and until half the time is up at least that many more are
+    // still to come, so with plenty of moves to choose from smart stop mustn't end the search before then
+    @Test
+    public void smartStopWaitsWhileLeaderCanBeOvertaken() {
+        int timeLimit = 1000;
+        SearchSettings settings = new SearchSettings().setSmartStop(true);
+        long startTime = System.currentTimeMillis();
+        new MCTS(new State(), timeLimit, PlayerColour.WHITE, settings).getBestMove();
+
+        assertTrue(System.currentTimeMillis() - startTime >= timeLimit / 2);
+    }
+
+    // The only mate is found and proven, which ends the search long before its time is up
+    @Test
+    public void mateInOneIsProven() throws InvalidBoardPositionException, InvalidMoveException {
+        State state = TestPositions.fromFen("6k1/5ppp/8/8/8/8/8/R5K1", PlayerColour.WHITE);
+        HeapNodePool tree = new HeapNodePool(state);
+        SearchSettings settings = new SearchSettings().setThreads(1).setSmartStop(false);
+        long startTime = System.currentTimeMillis();
+        Move bestMove = new MCTS(tree, 60000, PlayerColour.WHITE, settings).getBestMove();
+
+        assertTrue(System.currentTimeMillis() - startTime < 30000);
+        assertEquals(state.getMoveFromString("a1a8"), bestMove);
+        // Proven from the point of view of black, who moved into the root
+        assertEquals(NodePool.PROVEN_LOSS, tree.getProof(NodePool.ROOT));
+    }
+
+    // Both of black's king moves are met by Re8 mate, so every move is proven to lose and so is the root
+    @Test
+    public void everyMoveLosingIsProven() throws InvalidBoardPositionException {
+        State state = TestPositions.fromFen("1k6/8/1K6/8/8/8/8/4R3", PlayerColour.BLACK);
+        HeapNodePool tree = new HeapNodePool(state);
+        SearchSettings settings = new SearchSettings().setThreads(1).setSmartStop(false);
+        Move bestMove = new MCTS(tree, 60000, PlayerColour.BLACK, settings).getBestMove();
+
+        assertEquals(NodePool.PROVEN_WIN, tree.getProof(NodePool.ROOT));
+        int firstChild = tree.getFirstChild(NodePool.ROOT);
+        assertEquals(2, tree.getChildCount(NodePool.ROOT));
+        for (int child = firstChild; child < firstChild + 2; child++) {
+            assertEquals(NodePool.PROVEN_LOSS, tree.getProof(child));
+        }
+        // A losing move is still played when there's nothing else
+        assertTrue(state.getAllLegalMoves().contains(bestMove));
+    }
+
+    // Gives the node a child for each legal move in the state, and returns the first
+    private static int expand(NodePool tree, int node, State state) {
+        int childCount = state.getLegalMoveCount();
+        int firstChild = tree.allocate(childCount);
+        for (int i = 0; i < childCount; i++) {
+            tree.setMove(firstChild + i, state.getLegalMove(i));
+        }
+        tree.claimExpansion(node);
+        tree.setChildren(node, firstChild, childCount);
+        return firstChild;
+    }
+
+    private static int findChild(NodePool tree, int firstChild, int move) {
+        int child = firstChild;
+        while (tree.getMove(child) != move) {
+            child++;
+        }
+        return child;
+    }
+
+    // Exactly the node's children with the given moves have one AMAF visit, each a win for the player making it
+    private static void assertAmaf(NodePool tree, int node, int... moves) {
+        int firstChild = tree.getFirstChild(node);
+        for (int child = firstChild; child < firstChild + tree.getChildCount(node); child++) {
+            boolean played = false;
+            for (int move : moves) {
+                played |= tree.getMove(child) == move;
+            }
+            double expectedReward = Move.getColour(tree.getMove(child)) == PlayerColour.WHITE ? 1 : 0;
+            assertEquals(played ? 1 : 0, tree.getAmafVisits(child));
+            assertEquals(played ? expectedReward : 0, tree.getAmafReward(child), 0);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package search;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class TimeManagerTest {
+
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
+    // Packed moves, only compared with each other
+    private static final int MOVE = 1;
+    private static final int OTHER_MOVE = 2;
+
+    // The end time after searching for a second, with the best move last changing at changeMillis
+    private static long getEndMillis(TimeManager timeManager, long changeMillis) {
+        timeManager.start(0);
+        timeManager.shouldStop(0, MOVE);
+        timeManager.shouldStop(changeMillis * NANOS_PER_MILLI, OTHER_MOVE);
+        return timeManager.getEndTime(1000 * NANOS_PER_MILLI) / NANOS_PER_MILLI;
+    }
+
+    // With no increment and moves to go unknown, each move gets a 30th of the time left after the move overhead, and
+    // the hard limit is 3 times that
+    @Test
+    public void forClockSplitsRemainingTime() {
+        TimeManager timeManager = TimeManager.forClock(60050, 0, 0);
+        timeManager.start(0);
+        assertEquals(6000 * NANOS_PER_MILLI, timeManager.getHardEndTime());
+        // The best move changed half way through, so it's neither stable nor unstable
+        assertEquals(2000, getEndMillis(timeManager, 500));
+    }
+
+    // Three quarters of the increment is spent on top of the move's share of the time left
+    @Test
+    public void forClockSpendsIncrement() {
+        TimeManager timeManager = TimeManager.forClock(30050, 2000, 10);
+        assertEquals(4500, getEndMillis(timeManager, 500));
+        // 3 times 4500 would be more than a quarter of the time left
+        timeManager.start(0);
+        assertEquals(7500 * NANOS_PER_MILLI, timeManager.getHardEndTime());
+    }
+
+    // Neither limit is ever more than a quarter of the time left, however big the increment
+    @Test
+    public void forClockCapsAtQuarterOfRemainingTime() {
+        TimeManager timeManager = TimeManager.forClock(4050, 10000, 0);
+        timeManager.start(0);
+        assertEquals(1000 * NANOS_PER_MILLI, timeManager.getHardEndTime());
+        assertEquals(1000, getEndMillis(timeManager, 500));
+    }
+
+    // A set maximum caps both limits, even with plenty of time left
+    @Test
+    public void forClockCapsAtMaximum() {
+        TimeManager timeManager = TimeManager.forClock(900050, 0, 0, 15000);
+        timeManager.start(0);
+        assertEquals(15000 * NANOS_PER_MILLI, timeManager.getHardEndTime());
+        assertEquals(15000, getEndMillis(timeManager, 500));
+        assertEquals(15000, getEndMillis(timeManager, 900));
+
+        // Without it, the soft limit is a 30th of the time left and the hard limit 3 times that
+        TimeManager uncapped = TimeManager.forClock(900050, 0, 0);
+        uncapped.start(0);
+        assertEquals(90000 * NANOS_PER_MILLI, uncapped.getHardEndTime());
+    }
+
+    // A best move that hasn't changed for most of the search cuts it to 0.6 times the soft limit, and one that has just
+    // changed extends it to twice the soft limit, as long as that's within the hard limit
+    @Test
+    public void endTimeFollowsStability() {
+        TimeManager timeManager = TimeManager.forClock(60050, 0, 0);
+        assertEquals(1200, getEndMillis(timeManager, 0));
+        assertEquals(4000, getEndMillis(timeManager, 900));
+
+        TimeManager capped = TimeManager.forClock(30050, 2000, 10);
+        assertEquals(7500, getEndMillis(capped, 900));
+    }
+
+    // A fixed time per move ignores the best move's stability
+    @Test
+    public void fixedTimeIsNotAdjusted() {
+        TimeManager timeManager = TimeManager.fixed(500);
+        timeManager.start(0);
+        assertEquals(500 * NANOS_PER_MILLI, timeManager.getHardEndTime());
+        assertEquals(500, getEndMillis(timeManager, 0));
+        assertEquals(500, getEndMillis(timeManager, 900));
+        assertTrue(timeManager.shouldStop(500 * NANOS_PER_MILLI, MOVE));
+        assertFalse(timeManager.shouldStop(499 * NANOS_PER_MILLI, MOVE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeTimeIsRefused() {
+        TimeManager.forClock(-1, 0, 0);
+    }
+}
@@ -0,0 +1,101 @@
+package search;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+import chessboard.*;
+
+public class TranspositionTableTest {
+
+    // Makes a list of moves in the format Main reads them in on the state, which is changed and returned
+    private static State playMoves(State state, String... moves) throws InvalidMoveException {
+        for (String move: moves) {
+            state.makeMove(state.getMoveFromString(move));
+        }
+        return state;
+    }
+
+    // Only the key that was put is found, even when another key shares its slot
+    @Test
+    public void getFindsOnlyItsOwnKey() {
+        TranspositionTable table = new TranspositionTable(16);
+        table.put(3, 10);
+        table.put(3 + 16, 20);
+        assertEquals(10, table.get(3));
+        assertEquals(20, table.get(3 + 16));
+        assertEquals(-1, table.get(3 + 32));
+
+        table.put(3, 30);
+        assertEquals(30, table.get(3));
+    }
+
+    // A cleared table finds nothing, and can be filled again
+    @Test
+    public void clearEmptiesTable() {
+        TranspositionTable table = new TranspositionTable(16);
+        table.put(3, 10);
+        table.put(4, 20);
+        table.clear();
+        assertEquals(-1, table.get(3));
+        assertEquals(-1, table.get(4));
+
+        table.put(3, 30);
+        assertEquals(30, table.get(3));
+    }
+
+    // A leaf is linked to the node the table has for its position, and keeps that link while the node still has the
+    // position's key
+    @Test
+    public void leafIsLinkedToTransposition() throws InvalidMoveException {
+        State state = playMoves(new State(), "e2e4", "e7e5", "g1f3");
+        NodePool tree = new HeapNodePool(new State());
+        TranspositionTable table = new TranspositionTable(16);
+        int node = tree.allocate(1);
+        int leaf = tree.allocate(1);
+        tree.setKey(node, state.getHash());
+        table.put(state.getHash(), node);
+
+        assertEquals(node, MCTS.findTransposition(tree, table, leaf, state));
+        assertEquals(node, tree.getLink(leaf));
+        assertEquals(state.getHash(), tree.getKey(leaf));
+        assertEquals(node, MCTS.findTransposition(tree, new TranspositionTable(16), leaf, state));
+    }
+
+    // Once the node a link or table entry points to has a different key (it was pruned and reused), it isn't used
+    @Test
+    public void staleEntriesAreRejected() throws InvalidMoveException {
+        State state = playMoves(new State(), "e2e4", "e7e5", "g1f3");
+        NodePool tree = new HeapNodePool(new State());
+        TranspositionTable table = new TranspositionTable(16);
+        int node = tree.allocate(1);
+        int leaf = tree.allocate(1);
+        tree.setKey(node, state.getHash());
+        table.put(state.getHash(), node);
+        assertEquals(node, MCTS.findTransposition(tree, table, leaf, state));
+
+        tree.setKey(node, state.getHash() + 1);
+        assertEquals(-1, MCTS.findTransposition(tree, table, leaf, state));
+
+        int otherLeaf = tree.allocate(1);
+        assertEquals(-1, MCTS.findTransposition(tree, table, otherLeaf, state));
+        assertEquals(0, tree.getLink(otherLeaf));
+    }
+
+    // What happens after a repeated position depends on how it was reached, so it's never linked, even to a node with
+    // its key
+    @Test
+    public void repeatedPositionIsNotLinked() throws InvalidMoveException {
+        State state = playMoves(new State(), "g1f3", "g8f6", "f3g1", "f6g8");
+        assertTrue(state.isRepeatedPosition());
+        NodePool tree = new HeapNodePool(new State());
+        TranspositionTable table = new TranspositionTable(16);
+        int node = tree.allocate(1);
+        int leaf = tree.allocate(1);
+        tree.setKey(node, state.getHash());
+        table.put(state.getHash(), node);
+
+        assertEquals(-1, MCTS.findTransposition(tree, table, leaf, state));
+        assertEquals(0, tree.getLink(leaf));
+    }
+}